@@ -0,0 +1,56 @@
+package io.github.vveird.ssdp.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.vveird.ssdp.SSDPClient;
+import io.github.vveird.ssdp.SSDPMessage;
+
+/**
+ * Cost of turning messages into packets and debug output.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodeBenchmark {
+
+	@Param({ "notify-router", "notify-sonos", "response-windows" })
+	public String packet;
+
+	private SSDPMessage msg;
+
+	@Setup
+	public void setup() {
+		byte[] data = PacketFixtures.load(packet);
+		msg = SSDPMessage.parse(data, 0, data.length, PacketFixtures.SENDER, null);
+	}
+
+	@Benchmark
+	public byte[] messageToBytes() {
+		return msg.toString().getBytes();
+	}
+
+	@Benchmark
+	public String messageToJson() {
+		return msg.toJson();
+	}
+
+	@Benchmark
+	public byte[] searchMessage() {
+		return SSDPClient.getSSDPSearchMessage("ssdp:all").getBytes();
+	}
+}
@@ -0,0 +1,185 @@
+package io.github.vveird.ssdp.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.vveird.ssdp.SSDPDeviceRegistry;
+import io.github.vveird.ssdp.SSDPJsonWriter;
+import io.github.vveird.ssdp.SSDPMessage;
+
+/**
+ * Cost of exporting discovered messages as JSON, the streaming writer against
+ * the ad-hoc way of turning <code>toString()</code> into a map and handing it
+ * to a generic JSON encoder.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonBenchmark {
+
+	/**
+	 * Devices of the bulk export
+	 */
+	private static final int DEVICES = 10_000;
+
+	@Param({ "notify-router", "notify-sonos", "response-windows" })
+	public String packet;
+
+	private SSDPMessage msg;
+
+	private ByteArrayOutputStream out;
+
+	private SSDPJsonWriter json;
+
+	@Setup
+	public void setup() {
+		byte[] data = PacketFixtures.load(packet);
+		msg = SSDPMessage.parse(data, 0, data.length, PacketFixtures.SENDER, null);
+		out = new ByteArrayOutputStream(4096);
+		json = new SSDPJsonWriter(out);
+	}
+
+	@Benchmark
+	public int streamingWriter() throws IOException {
+		out.reset();
+		json.write(msg);
+		json.flush();
+		return out.size();
+	}
+
+	@Benchmark
+	public byte[] toJson() {
+		return msg.toJson().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public byte[] adHocToStringAndEncoder() {
+		return encode(toMap(msg)).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Splits the packet form of <code>toString()</code> into fields.
+	 */
+	private static Map<String, Object> toMap(SSDPMessage msg) {
+		Map<String, Object> map = new LinkedHashMap<>();
+		Map<String, Object> headers = new LinkedHashMap<>();
+		map.put("type", msg.getSSDPType().getType());
+		map.put("from", String.valueOf(msg.getIpAddress()));
+		map.put("receiveTime", msg.getReceiveTime());
+		map.put("maxAge", msg.getMaxAge());
+		String[] lines = msg.toString().split("\r\n");
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+			if (colon > 0)
+				headers.put(lines[i].substring(0, colon).trim(), lines[i].substring(colon + 1).trim());
+		}
+		for (String field : new String[] { "LOCATION", "SERVER", "ST", "USN", "NTS" }) {
+			map.put(field.toLowerCase(), headers.remove(field));
+		}
+		map.put("headers", headers);
+		return map;
+	}
+
+	/**
+	 * Generic encoder of maps, strings and numbers, as a JSON library does it
+	 */
+	@SuppressWarnings("unchecked")
+	private static String encode(Object value) {
+		if (value == null)
+			return "null";
+		if (value instanceof Number)
+			return value.toString();
+		if (value instanceof Map) {
+			StringBuilder sb = new StringBuilder("{");
+			for (Map.Entry<String, Object> e : ((Map<String, Object>) value).entrySet()) {
+				if (sb.length() > 1)
+					sb.append(',');
+				sb.append(encode(e.getKey())).append(':').append(encode(e.getValue()));
+			}
+			return sb.append('}').toString();
+		}
+		String s = value.toString();
+		StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c < 0x20 || c > 0x7E)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * Registry with {@value #DEVICES} devices exported as a whole
+	 */
+	@State(Scope.Benchmark)
+	public static class Registry {
+
+		SSDPDeviceRegistry registry;
+
+		final OutputStream sink = new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		};
+
+		@Setup(Level.Trial)
+		public void setup() {
+			registry = new SSDPDeviceRegistry();
+			String template = new String(PacketFixtures.load("notify-sonos"), StandardCharsets.UTF_8);
+			for (int i = 0; i < DEVICES; i++) {
+				byte[] data = template.replace("uuid:", "uuid:" + i + "-").getBytes(StandardCharsets.UTF_8);
+				registry.put(SSDPMessage.parse(data, 0, data.length, new InetSocketAddress("10.0." + (i >> 8) + "." + (i & 0xFF), 1900), null));
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void close() {
+			registry.close();
+		}
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void exportRegistry(Registry r) throws IOException {
+		r.registry.exportJson(r.sink);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void exportRegistryAdHoc(Registry r) throws IOException {
+		for (SSDPMessage m : r.registry.getDevices()) {
+			r.sink.write(encode(toMap(m)).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+}
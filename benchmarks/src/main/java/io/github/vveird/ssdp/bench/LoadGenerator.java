@@ -0,0 +1,372 @@
+package io.github.vveird.ssdp.bench;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import io.github.vveird.ssdp.SSDPListener;
+import io.github.vveird.ssdp.SSDPMessage;
+import io.github.vveird.ssdp.metrics.DefaultMetricsRegistry;
+import io.github.vveird.ssdp.metrics.Histogram;
+import io.github.vveird.ssdp.server.SSDPServer;
+import io.github.vveird.ssdp.server.SSDPServerConfig;
+import io.github.vveird.ssdp.server.SSDPService;
+import io.github.vveird.ssdp.transport.Transport;
+import io.github.vveird.ssdp.transport.VirtualLan;
+
+/**
+ * Soak test of a real {@link SSDPServer} without UPnP hardware. Virtual
+ * devices and control points send a mix of NOTIFY alive/byebye, M-SEARCH and
+ * M-SEARCH responses over loopback to port 1900 at a target rate. Every
+ * packet carries a sequence number and its send time, a listener on the
+ * server measures delivery latency and loss. Throughput, latency
+ * percentiles, heap and GC are reported every second and at the end. With
+ * the VIRTUAL transport the packets travel over an in-memory
+ * {@link VirtualLan} instead, which measures the cost of parsing and
+ * dispatching without the kernel.
+ * <p>
+ * Run after <code>mvn package</code>:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar io.github.vveird.ssdp.bench.LoadGenerator --rate=20000 --duration=60
+ * </pre>
+ *
+ * Options, all of the form <code>--name=value</code>:
+ * <ul>
+ * <li><code>rate</code> packets per second, default 5000</li>
+ * <li><code>duration</code> seconds, default 30</li>
+ * <li><code>devices</code> number of virtual devices, default 2000</li>
+ * <li><code>control-points</code> number of sockets sending M-SEARCH,
+ * default 4</li>
+ * <li><code>services</code> services registered on the server, answered by
+ * M-SEARCH, default 10</li>
+ * <li><code>mix</code> weights of the packet types, default
+ * <code>notify=70,byebye=5,msearch=5,response=20</code></li>
+ * <li><code>transport</code> BLOCKING, SELECTOR or VIRTUAL, default
+ * BLOCKING</li>
+ * <li><code>target</code> address the packets are sent to, default
+ * 127.0.0.1</li>
+ * </ul>
+ */
+public final class LoadGenerator {
+
+	private static final String SEQ = "X-SIM-SEQ";
+
+	private static final String TS = "X-SIM-TS";
+
+	private static final String SIM_ST = "urn:sim-vveird:service:Load:1";
+
+	private static final String NOTIFY = "notify";
+
+	private static final String BYEBYE = "byebye";
+
+	private static final String MSEARCH = "msearch";
+
+	private static final String RESPONSE = "response";
+
+	private final Map<String, String> options;
+
+	private final DefaultMetricsRegistry metrics = new DefaultMetricsRegistry();
+
+	private final Histogram latency = metrics.histogram("sim.latency.nanos");
+
+	private final LongAdder delivered = new LongAdder();
+
+	private final LongAdder responsesReceived = new LongAdder();
+
+	private final Map<String, LongAdder> sent = new HashMap<>();
+
+	private volatile boolean running = true;
+
+	private LoadGenerator(Map<String, String> options) {
+		this.options = options;
+		for (String type : new String[] { NOTIFY, BYEBYE, MSEARCH, RESPONSE }) {
+			sent.put(type, new LongAdder());
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			if (!arg.startsWith("--") || arg.indexOf('=') < 0)
+				throw new IllegalArgumentException("Options are given as --name=value: " + arg);
+			options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+		}
+		new LoadGenerator(options).run();
+	}
+
+	private int intOption(String name, int def) {
+		return options.containsKey(name) ? Integer.parseInt(options.get(name)) : def;
+	}
+
+	private void run() throws Exception {
+		int rate = intOption("rate", 5_000);
+		int duration = intOption("duration", 30);
+		int devices = intOption("devices", 2_000);
+		int controlPoints = intOption("control-points", 4);
+		InetAddress target = InetAddress.getByName(options.getOrDefault("target", "127.0.0.1"));
+		String[] mix = mix(options.getOrDefault("mix", "notify=70,byebye=5,msearch=5,response=20"));
+
+		String transport = options.getOrDefault("transport", "BLOCKING");
+		VirtualLan lan = "VIRTUAL".equals(transport) ? new VirtualLan() : null;
+		SSDPServerConfig.ConfigBuilder builder = SSDPServerConfig.builder().metricsRegistry(metrics)
+				.msearchSourceLimit(0, 0).msearchStLimit(0, 0).responseLimit(0, 0);
+		if (lan != null)
+			builder.transportFactory(lan).localAddress(target);
+		else
+			builder.transportMode(SSDPServerConfig.TransportMode.valueOf(transport));
+		SSDPServer server = new SSDPServer(builder.build());
+		for (int i = 0; i < intOption("services", 10); i++) {
+			server.registerService(SSDPService.builder().st(SIM_ST).usn("uuid:sim-service-" + i + "::" + SIM_ST)
+					.location("http://127.0.0.1:8080/service-" + i + ".xml").build());
+		}
+		server.addSSDPListener(new LatencyListener());
+
+		InetSocketAddress to = new InetSocketAddress(target, 1900);
+		List<PacketSender> senders = new ArrayList<>();
+		List<AutoCloseable> closeables = new ArrayList<>();
+		for (int i = 0; i < Math.max(1, controlPoints); i++) {
+			if (lan != null) {
+				Transport t = lan.open(InetAddress.getByName("10.0." + (i >> 8) + "." + (i & 0xFF)));
+				t.start((multicast, data, length, from) -> {
+					if (!multicast)
+						responsesReceived.increment();
+				});
+				senders.add(data -> t.send(data, to));
+				closeables.add(t::close);
+			}
+			else {
+				DatagramSocket socket = new DatagramSocket();
+				startResponseReader(socket);
+				senders.add(data -> socket.send(new DatagramPacket(data, data.length, to)));
+				closeables.add(socket);
+			}
+		}
+		System.out.println("Sending " + rate + " packets/s for " + duration + " s from " + devices
+				+ " virtual devices to " + target.getHostAddress() + ":1900, " + transport);
+		Thread reporter = startReporter();
+		long start = System.nanoTime();
+		send(senders, mix, devices, rate, start + duration * 1_000_000_000L);
+		// Let the server drain its queues before counting losses
+		Thread.sleep(1_000);
+		running = false;
+		reporter.join();
+		report(System.nanoTime() - start, server);
+		for (AutoCloseable closeable : closeables) {
+			closeable.close();
+		}
+		server.close();
+	}
+
+	/**
+	 * @return Packet types, each repeated by its weight, drawn at random
+	 */
+	private static String[] mix(String spec) {
+		List<String> types = new ArrayList<>();
+		for (String part : spec.split(",")) {
+			String[] kv = part.trim().split("=");
+			String type = null;
+			for (String t : new String[] { NOTIFY, BYEBYE, MSEARCH, RESPONSE }) {
+				if (kv.length == 2 && t.equals(kv[0]))
+					type = t;
+			}
+			if (type == null)
+				throw new IllegalArgumentException("Invalid mix entry " + part);
+			for (int i = 0; i < Integer.parseInt(kv[1]); i++) {
+				types.add(type);
+			}
+		}
+		if (types.isEmpty())
+			throw new IllegalArgumentException("Empty packet mix");
+		return types.toArray(new String[types.size()]);
+	}
+
+	private void send(List<PacketSender> senders, String[] mix, int devices, int rate, long end) throws IOException {
+		long interval = 1_000_000_000L / Math.max(1, rate);
+		long next = System.nanoTime();
+		long seq = 0;
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while (next < end) {
+			String type = mix[random.nextInt(mix.length)];
+			int device = random.nextInt(devices);
+			byte[] packet = packet(type, device, seq++, random).getBytes(StandardCharsets.UTF_8);
+			PacketSender sender = MSEARCH.equals(type) ? senders.get(random.nextInt(senders.size())) : senders.get(0);
+			sender.send(packet);
+			sent.get(type).increment();
+			next += interval;
+			long wait = next - System.nanoTime();
+			// Sleeping is only precise to some 100 us, smaller gaps are caught up
+			if (wait > 200_000)
+				LockSupport.parkNanos(wait);
+		}
+	}
+
+	private static String packet(String type, int device, long seq, ThreadLocalRandom random) {
+		String nt = "urn:schemas-upnp-org:device:SimDevice:" + (1 + device % 3);
+		String usn = "uuid:sim-device-" + device + "::" + nt;
+		StringBuilder sb = new StringBuilder(320);
+		switch (type) {
+		case MSEARCH:
+			// Half of the searches match the services of the server
+			sb.append("M-SEARCH * HTTP/1.1\r\nHOST: 239.255.255.250:1900\r\nMAN: \"ssdp:discover\"\r\nMX: 1\r\nST: ")
+					.append(random.nextBoolean() ? SIM_ST : nt).append("\r\n");
+			break;
+		case RESPONSE:
+			sb.append("HTTP/1.1 200 OK\r\nCACHE-CONTROL: max-age=1800\r\nEXT:\r\nLOCATION: http://127.0.0.1:8080/")
+					.append(device).append(".xml\r\nSERVER: Sim/1.0 UPnP/1.0 LoadGenerator/1.0\r\nST: ").append(nt)
+					.append("\r\nUSN: ").append(usn).append("\r\n");
+			break;
+		default:
+			sb.append("NOTIFY * HTTP/1.1\r\nHOST: 239.255.255.250:1900\r\n");
+			if (NOTIFY.equals(type))
+				sb.append("CACHE-CONTROL: max-age=1800\r\nLOCATION: http://127.0.0.1:8080/").append(device)
+						.append(".xml\r\nSERVER: Sim/1.0 UPnP/1.0 LoadGenerator/1.0\r\n");
+			sb.append("NT: ").append(nt).append("\r\nNTS: ").append(NOTIFY.equals(type) ? "ssdp:alive" : "ssdp:byebye")
+					.append("\r\nUSN: ").append(usn).append("\r\n");
+			break;
+		}
+		sb.append(SEQ).append(": ").append(seq).append("\r\n");
+		sb.append(TS).append(": ").append(System.nanoTime()).append("\r\n\r\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Socket or virtual transport of a control point, sending to the server
+	 */
+	private interface PacketSender {
+		void send(byte[] data) throws IOException;
+	}
+
+	/**
+	 * Counts the answers of the server to the M-SEARCH requests
+	 */
+	private void startResponseReader(DatagramSocket socket) throws SocketException {
+		socket.setSoTimeout(500);
+		Thread t = new Thread(() -> {
+			DatagramPacket dp = new DatagramPacket(new byte[2048], 2048);
+			while (!socket.isClosed()) {
+				try {
+					socket.receive(dp);
+					responsesReceived.increment();
+				} catch (IOException e) {
+					// Timeout or closed socket
+				}
+			}
+		});
+		t.setDaemon(true);
+		t.setName("LoadGenerator Response Reader");
+		t.start();
+	}
+
+	private Thread startReporter() {
+		Thread t = new Thread(() -> {
+			long lastSent = 0;
+			long lastDelivered = 0;
+			long second = 0;
+			while (running) {
+				try {
+					Thread.sleep(1_000);
+				} catch (InterruptedException e) {
+					return;
+				}
+				long s = totalSent();
+				long d = delivered.sum();
+				System.out.println(String.format("%4d s  sent %7d/s  delivered %7d/s  p50 %8.1f us  p99 %8.1f us  heap %5d MB  gc %s",
+						++second, s - lastSent, d - lastDelivered, latency.percentile(50) / 1_000.0,
+						latency.percentile(99) / 1_000.0, usedHeapMb(), gc()));
+				lastSent = s;
+				lastDelivered = d;
+			}
+		});
+		t.setDaemon(true);
+		t.setName("LoadGenerator Reporter");
+		t.start();
+		return t;
+	}
+
+	private void report(long nanos, SSDPServer server) {
+		long s = totalSent();
+		long d = delivered.sum();
+		double seconds = nanos / 1e9;
+		System.out.println();
+		System.out.println("Sent            " + s + " (" + sent + ")");
+		System.out.println(String.format("Delivered       %d, %.0f/s", d, d / seconds));
+		System.out.println(String.format("Lost            %d (%.3f %%)", s - d, s > 0 ? 100.0 * (s - d) / s : 0));
+		System.out.println("Responses       " + responsesReceived.sum());
+		System.out.println(String.format("Latency         p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+				latency.percentile(50) / 1_000.0, latency.percentile(99) / 1_000.0, latency.percentile(99.9) / 1_000.0,
+				latency.percentile(100) / 1_000.0));
+		System.out.println("Heap used       " + usedHeapMb() + " MB");
+		System.out.println("GC              " + gc());
+		Map<String, Long> snapshot = server.getMetrics().snapshot();
+		for (String name : new String[] { "rx.parse.errors", "rx.truncated", "rx.duplicates", "rx.filtered",
+				"dispatch.dropped", "tx.dropped", "tx.errors", "tx.msearch.responses" }) {
+			System.out.println(String.format("%-15s %d", name, snapshot.getOrDefault(name, 0L)));
+		}
+	}
+
+	private long totalSent() {
+		long total = 0;
+		for (LongAdder a : sent.values()) {
+			total += a.sum();
+		}
+		return total;
+	}
+
+	private static long usedHeapMb() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() >> 20;
+	}
+
+	private static String gc() {
+		StringBuilder sb = new StringBuilder();
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (sb.length() > 0)
+				sb.append(", ");
+			sb.append(gc.getName()).append(' ').append(gc.getCollectionCount()).append(" / ")
+					.append(gc.getCollectionTime()).append(" ms");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Records the delivery latency of every simulated packet
+	 */
+	private class LatencyListener implements SSDPListener {
+
+		private void received(SSDPMessage msg) {
+			String ts = msg.getHeader(TS);
+			if (ts == null || msg.getHeader(SEQ) == null)
+				return;
+			latency.record(System.nanoTime() - Long.parseLong(ts));
+			delivered.increment();
+		}
+
+		@Override
+		public void notify(SSDPMessage msg) {
+			received(msg);
+		}
+
+		@Override
+		public void msearchResponse(SSDPMessage msg) {
+			received(msg);
+		}
+
+		@Override
+		public void msearch(SSDPMessage msg) {
+			received(msg);
+		}
+	}
+}
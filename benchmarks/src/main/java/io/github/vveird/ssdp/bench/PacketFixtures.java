@@ -0,0 +1,50 @@
+package io.github.vveird.ssdp.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Real world SSDP packets used by the benchmarks, loaded from
+ * <code>/packets/&lt;name&gt;.txt</code>. The files are stored with LF line
+ * endings and converted to CRLF as sent on the wire.
+ * <ul>
+ * <li>short: <code>msearch-short</code></li>
+ * <li>typical: <code>notify-router</code>, <code>response-hue</code>,
+ * <code>response-roku</code></li>
+ * <li>header heavy: <code>notify-sonos</code>,
+ * <code>response-windows</code></li>
+ * </ul>
+ */
+public final class PacketFixtures {
+
+	public static final String[] NAMES = { "msearch-short", "notify-router", "response-hue", "response-roku",
+			"notify-sonos", "response-windows" };
+
+	public static final SocketAddress SENDER = new InetSocketAddress("192.168.1.20", 1900);
+
+	private PacketFixtures() {
+	}
+
+	public static byte[] load(String name) {
+		try (InputStream in = PacketFixtures.class.getResourceAsStream("/packets/" + name + ".txt")) {
+			if (in == null)
+				throw new IllegalArgumentException("Unknown packet fixture " + name);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[1024];
+			int read = 0;
+			while ((read = in.read(buf)) > 0) {
+				out.write(buf, 0, read);
+			}
+			String packet = new String(out.toByteArray(), StandardCharsets.UTF_8).replace("\r\n", "\n")
+					.replace("\n", "\r\n");
+			return packet.getBytes(StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package io.github.vveird.ssdp.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.vveird.ssdp.SSDPMessage;
+
+/**
+ * Parse throughput of {@link SSDPMessage#parse}, run with
+ * <code>-prof gc</code> for the allocation rate per message.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+
+	@Param({ "msearch-short", "notify-router", "response-hue", "response-roku", "notify-sonos", "response-windows" })
+	public String packet;
+
+	private byte[] data;
+
+	@Setup
+	public void setup() {
+		data = PacketFixtures.load(packet);
+	}
+
+	@Benchmark
+	public SSDPMessage parse() {
+		return SSDPMessage.parse(data, 0, data.length, PacketFixtures.SENDER, null);
+	}
+
+	/**
+	 * Access pattern of most listeners: parse, read USN and NTS, discard.
+	 */
+	@Benchmark
+	public int parseAndReadUsn() {
+		SSDPMessage msg = SSDPMessage.parse(data, 0, data.length, PacketFixtures.SENDER, null);
+		String usn = msg.getUSN();
+		String nts = msg.getNTS();
+		return (usn != null ? usn.length() : 0) + (nts != null ? nts.length() : 0);
+	}
+}
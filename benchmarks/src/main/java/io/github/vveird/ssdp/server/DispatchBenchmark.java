@@ -0,0 +1,105 @@
+package io.github.vveird.ssdp.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.vveird.ssdp.SSDPListener;
+import io.github.vveird.ssdp.SSDPMessage;
+import io.github.vveird.ssdp.bench.PacketFixtures;
+import io.github.vveird.ssdp.server.SSDPServerConfig.OverflowPolicy;
+
+/**
+ * End to end delivery of a received message to N listeners through the
+ * {@link ListenerDispatcher}. Uses the BLOCK overflow policy so every message
+ * is delivered and the score reflects listener throughput, not drops.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DispatchBenchmark {
+
+	@Param({ "1", "4", "16" })
+	public int listeners;
+
+	private ListenerDispatcher dispatcher;
+
+	private SSDPListener[] targets;
+
+	private SSDPMessage msg;
+
+	private final LongAdder delivered = new LongAdder();
+
+	private long dispatched = 0;
+
+	@Setup
+	public void setup() {
+		dispatcher = new ListenerDispatcher(
+				SSDPServerConfig.builder().overflowPolicy(OverflowPolicy.BLOCK).dispatchQueueCapacity(1024).build());
+		targets = new SSDPListener[listeners];
+		for (int i = 0; i < listeners; i++) {
+			targets[i] = new CountingListener();
+			dispatcher.add(targets[i]);
+		}
+		byte[] data = PacketFixtures.load("notify-router");
+		msg = SSDPMessage.parse(data, 0, data.length, PacketFixtures.SENDER, null);
+	}
+
+	@Benchmark
+	public void dispatch() {
+		for (SSDPListener listener : targets) {
+			dispatcher.dispatch(listener, msg);
+		}
+		dispatched += targets.length;
+	}
+
+	/**
+	 * Waits for the listeners, so queued messages are part of the iteration
+	 * that produced them.
+	 */
+	@TearDown(Level.Iteration)
+	public void drain() throws InterruptedException {
+		while (delivered.sum() < dispatched) {
+			Thread.sleep(1);
+		}
+	}
+
+	@TearDown
+	public void close() {
+		dispatcher.close();
+	}
+
+	private class CountingListener implements SSDPListener {
+
+		@Override
+		public void notify(SSDPMessage msg) {
+			delivered.increment();
+		}
+
+		@Override
+		public void msearchResponse(SSDPMessage msg) {
+			delivered.increment();
+		}
+
+		@Override
+		public void msearch(SSDPMessage msg) {
+			delivered.increment();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package io.github.vveird.ssdp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pool of receive buffers, heap arrays for the blocking sockets and direct
+ * buffers for channels. Buffers are leased for one datagram and returned
+ * after it was handled, so receiving does not produce garbage once the pool
+ * is warm. Taking and returning buffers does not allocate.
+ */
+public class BufferPool {
+
+	/**
+	 * Largest payload of an UDP datagram
+	 */
+	public static final int MAX_DATAGRAM_SIZE = 65_507;
+
+	private final int bufferSize;
+
+	private final ArrayBlockingQueue<byte[]> arrays;
+
+	private final ArrayBlockingQueue<ByteBuffer> directBuffers;
+
+	/**
+	 * @param bufferSize Size of the buffers, the largest datagram received
+	 *            without being truncated
+	 * @param maxPooled Number of buffers of each kind kept for reuse
+	 */
+	public BufferPool(int bufferSize, int maxPooled) {
+		if (bufferSize < 1 || bufferSize > MAX_DATAGRAM_SIZE)
+			throw new IllegalArgumentException("Buffer size must be between 1 and " + MAX_DATAGRAM_SIZE);
+		this.bufferSize = bufferSize;
+		this.arrays = new ArrayBlockingQueue<>(Math.max(1, maxPooled));
+		this.directBuffers = new ArrayBlockingQueue<>(Math.max(1, maxPooled));
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public byte[] acquireArray() {
+		byte[] array = arrays.poll();
+		return array != null ? array : new byte[bufferSize];
+	}
+
+	public void release(byte[] array) {
+		if (array != null && array.length == bufferSize)
+			arrays.offer(array);
+	}
+
+	/**
+	 * @return Cleared direct buffer
+	 */
+	public ByteBuffer acquireDirect() {
+		ByteBuffer buffer = directBuffers.poll();
+		if (buffer == null)
+			return ByteBuffer.allocateDirect(bufferSize);
+		buffer.clear();
+		return buffer;
+	}
+
+	public void release(ByteBuffer buffer) {
+		if (buffer != null && buffer.isDirect() && buffer.capacity() == bufferSize)
+			directBuffers.offer(buffer);
+	}
+}
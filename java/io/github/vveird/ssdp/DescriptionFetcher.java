@@ -0,0 +1,435 @@
+package io.github.vveird.ssdp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Shared, asynchronous cache of the device descriptions behind the LOCATION
+ * of SSDP messages. Concurrent fetches of the same URL are merged into one
+ * request. An entry is valid until the max-age of the message that caused
+ * the fetch, afterwards it is revalidated with a conditional GET using the
+ * ETag and Last-Modified of the cached document. The number of concurrent
+ * requests per host is bounded, further requests wait in a queue of the host
+ * without blocking a thread.
+ */
+public class DescriptionFetcher implements AutoCloseable {
+
+	private Logger logger = LogManager.getLogger(DescriptionFetcher.class);
+
+	private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+
+	private final Map<String, HostQueue> hosts = new ConcurrentHashMap<>();
+
+	private final Executor executor;
+
+	private final ExecutorService ownedExecutor;
+
+	private final int maxConnectionsPerHost;
+
+	private final int connectTimeoutMillis;
+
+	private final int readTimeoutMillis;
+
+	private final int maxContentLength;
+
+	private final int maxEntries;
+
+	private final LongAdder requests = new LongAdder();
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder notModified = new LongAdder();
+
+	private DescriptionFetcher(FetcherBuilder builder) {
+		this.maxConnectionsPerHost = builder.maxConnectionsPerHost;
+		this.connectTimeoutMillis = builder.connectTimeoutMillis;
+		this.readTimeoutMillis = builder.readTimeoutMillis;
+		this.maxContentLength = builder.maxContentLength;
+		this.maxEntries = builder.maxEntries;
+		if (builder.executor != null) {
+			this.executor = builder.executor;
+			this.ownedExecutor = null;
+		}
+		else {
+			AtomicInteger threads = new AtomicInteger();
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(builder.threads, builder.threads, 30, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>(), r -> {
+						Thread t = new Thread(r);
+						t.setDaemon(true);
+						t.setName("SSDP Description Fetcher " + threads.getAndIncrement());
+						return t;
+					});
+			pool.allowCoreThreadTimeOut(true);
+			this.executor = pool;
+			this.ownedExecutor = pool;
+		}
+	}
+
+	/**
+	 * Fetches the description of the device that sent the message, valid
+	 * until the message expires.
+	 */
+	public CompletableFuture<DeviceDescription> fetch(SSDPMessage msg) {
+		long expiry = msg.getMaxAge() < 0 ? msg.getReceiveTime() + SSDPDeviceRegistry.DEFAULT_MAX_AGE * 1_000L
+				: msg.getExpiryTime();
+		return fetch(msg.getLocation(), expiry);
+	}
+
+	/**
+	 * Fetches the description at the URL.
+	 * @param location http or https URL of the description
+	 * @param expiryTime Time in milliseconds until the fetched description is
+	 *            used without asking the device again
+	 * @return Description, completed exceptionally if the URL is invalid or
+	 *         the request failed
+	 */
+	public CompletableFuture<DeviceDescription> fetch(String location, long expiryTime) {
+		String[] target = target(location);
+		if (target == null) {
+			CompletableFuture<DeviceDescription> failed = new CompletableFuture<>();
+			failed.completeExceptionally(new IllegalArgumentException("Invalid description URL: " + location));
+			return failed;
+		}
+		String key = target[0];
+		String host = target[1];
+		requests.increment();
+		long now = System.currentTimeMillis();
+		Entry[] created = new Entry[1];
+		Entry entry = cache.compute(key, (k, old) -> {
+			if (old != null && (!old.result.isDone() || (!old.result.isCompletedExceptionally() && now < old.expiryTime)))
+				return old;
+			DeviceDescription previous = old != null && !old.result.isCompletedExceptionally() ? old.result.join() : null;
+			created[0] = new Entry(key, expiryTime, previous);
+			return created[0];
+		});
+		if (created[0] == null) {
+			hits.increment();
+			return entry.result;
+		}
+		if (cache.size() > maxEntries)
+			evict(now);
+		while (!hosts.computeIfAbsent(host, HostQueue::new).submit(created[0])) {
+			// The queue of the host was just retired, a new one is created
+		}
+		return created[0].result;
+	}
+
+	/**
+	 * Normalises a LOCATION URL.
+	 * @return Cache key and host:port of the URL, <code>null</code> if it is
+	 *         no http(s) URL
+	 */
+	private static String[] target(String location) {
+		Matcher m = location != null ? RegexHelper.HTTP_PATTERN.matcher(location.trim()) : null;
+		if (m == null || !m.matches() || m.group("domain").isEmpty())
+			return null;
+		String scheme = m.group("http").toLowerCase();
+		String port = m.group("port") != null && !m.group("port").isEmpty() ? m.group("port")
+				: scheme.startsWith("https") ? "443" : "80";
+		String host = m.group("domain").toLowerCase() + ":" + port;
+		String uri = m.group("uri") == null || m.group("uri").isEmpty() ? "/" : m.group("uri");
+		return new String[] { scheme + host + uri, host };
+	}
+
+	/**
+	 * Removes the cached description of the URL, the next fetch asks the
+	 * device again.
+	 */
+	public void invalidate(String location) {
+		String[] target = target(location);
+		if (target != null)
+			cache.remove(target[0]);
+	}
+
+	/**
+	 * @return Number of cached descriptions and running fetches
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * @return Number of fetches answered from the cache or merged into a
+	 *         running one
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return Number of fetches
+	 */
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	/**
+	 * @return Number of conditional requests answered with 304
+	 */
+	public long getNotModified() {
+		return notModified.sum();
+	}
+
+	@Override
+	public void close() {
+		if (ownedExecutor != null)
+			ownedExecutor.shutdownNow();
+	}
+
+	/**
+	 * Removes expired entries, or if there are none any completed one.
+	 */
+	private void evict(long now) {
+		cache.values().removeIf(e -> e.result.isDone() && now >= e.expiryTime);
+		Iterator<Entry> it = cache.values().iterator();
+		while (cache.size() > maxEntries && it.hasNext()) {
+			if (it.next().result.isDone())
+				it.remove();
+		}
+	}
+
+	private DeviceDescription load(Entry e) throws IOException {
+		HttpURLConnection con = (HttpURLConnection) new URL(e.key).openConnection();
+		try {
+			con.setConnectTimeout(connectTimeoutMillis);
+			con.setReadTimeout(readTimeoutMillis);
+			con.setInstanceFollowRedirects(true);
+			con.setUseCaches(false);
+			DeviceDescription previous = e.previous;
+			if (previous != null && previous.getETag() != null)
+				con.setRequestProperty("If-None-Match", previous.getETag());
+			if (previous != null && previous.getLastModified() != null)
+				con.setRequestProperty("If-Modified-Since", previous.getLastModified());
+			int code = con.getResponseCode();
+			if (code == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null) {
+				notModified.increment();
+				return new DeviceDescription(previous.getLocation(), previous.getContent(), previous.getContentType(),
+						con.getHeaderField("ETag") != null ? con.getHeaderField("ETag") : previous.getETag(),
+						con.getHeaderField("Last-Modified") != null ? con.getHeaderField("Last-Modified")
+								: previous.getLastModified(),
+						true);
+			}
+			if (code != HttpURLConnection.HTTP_OK)
+				throw new IOException("HTTP " + code + " fetching " + e.key);
+			if (con.getContentLengthLong() > maxContentLength)
+				throw new IOException("Description of " + con.getContentLengthLong() + " bytes at " + e.key + " is too large");
+			return new DeviceDescription(e.key, read(con.getInputStream(), e.key), con.getContentType(),
+					con.getHeaderField("ETag"), con.getHeaderField("Last-Modified"), false);
+		} finally {
+			con.disconnect();
+		}
+	}
+
+	private byte[] read(InputStream in, String url) throws IOException {
+		try (InputStream is = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+			byte[] buf = new byte[4096];
+			int read = 0;
+			while ((read = is.read(buf)) >= 0) {
+				if (out.size() + read > maxContentLength)
+					throw new IOException("Description at " + url + " is larger than " + maxContentLength + " bytes");
+				out.write(buf, 0, read);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	public static FetcherBuilder builder() {
+		return new FetcherBuilder();
+	}
+
+	private static class Entry {
+
+		final String key;
+
+		final long expiryTime;
+
+		/**
+		 * Expired description revalidated by this fetch, <code>null</code> if
+		 * there is none
+		 */
+		final DeviceDescription previous;
+
+		final CompletableFuture<DeviceDescription> result = new CompletableFuture<>();
+
+		Entry(String key, long expiryTime, DeviceDescription previous) {
+			this.key = key;
+			this.expiryTime = expiryTime;
+			this.previous = previous;
+		}
+	}
+
+	/**
+	 * Runs at most maxConnectionsPerHost fetches of a host at a time
+	 */
+	private class HostQueue {
+
+		private final String host;
+
+		private final Queue<Entry> waiting = new ArrayDeque<>();
+
+		private int active = 0;
+
+		/**
+		 * Set once the queue was idle and removed from the hosts
+		 */
+		private boolean retired = false;
+
+		HostQueue(String host) {
+			this.host = host;
+		}
+
+		/**
+		 * @return <code>false</code> if the queue is retired and the fetch was
+		 *         not accepted
+		 */
+		boolean submit(Entry e) {
+			synchronized (this) {
+				if (retired)
+					return false;
+				if (active >= maxConnectionsPerHost) {
+					waiting.add(e);
+					return true;
+				}
+				active++;
+			}
+			start(e);
+			return true;
+		}
+
+		private void start(Entry e) {
+			try {
+				executor.execute(() -> run(e));
+			} catch (RejectedExecutionException ex) {
+				e.result.completeExceptionally(ex);
+				finished();
+			}
+		}
+
+		private void run(Entry e) {
+			try {
+				e.result.complete(load(e));
+			} catch (IOException | RuntimeException ex) {
+				logger.debug("Error fetching device description " + e.key, ex);
+				e.result.completeExceptionally(ex);
+			} finally {
+				finished();
+			}
+		}
+
+		private void finished() {
+			Entry next = null;
+			synchronized (this) {
+				next = waiting.poll();
+				if (next == null) {
+					active--;
+					if (active == 0) {
+						retired = true;
+						hosts.remove(host, this);
+					}
+					return;
+				}
+			}
+			start(next);
+		}
+	}
+
+	public static class FetcherBuilder {
+
+		private int maxConnectionsPerHost = 2;
+
+		private int connectTimeoutMillis = 3_000;
+
+		private int readTimeoutMillis = 5_000;
+
+		private int maxContentLength = 1 << 20;
+
+		private int maxEntries = 4096;
+
+		private int threads = 8;
+
+		private Executor executor = null;
+
+		private FetcherBuilder() {
+		}
+
+		public FetcherBuilder maxConnectionsPerHost(int maxConnectionsPerHost) {
+			if (maxConnectionsPerHost < 1)
+				throw new IllegalArgumentException("At least one connection per host is required");
+			this.maxConnectionsPerHost = maxConnectionsPerHost;
+			return this;
+		}
+
+		public FetcherBuilder connectTimeoutMillis(int connectTimeoutMillis) {
+			this.connectTimeoutMillis = connectTimeoutMillis;
+			return this;
+		}
+
+		public FetcherBuilder readTimeoutMillis(int readTimeoutMillis) {
+			this.readTimeoutMillis = readTimeoutMillis;
+			return this;
+		}
+
+		/**
+		 * Largest description accepted in bytes
+		 */
+		public FetcherBuilder maxContentLength(int maxContentLength) {
+			this.maxContentLength = maxContentLength;
+			return this;
+		}
+
+		/**
+		 * Number of cached descriptions, expired ones are evicted first
+		 */
+		public FetcherBuilder maxEntries(int maxEntries) {
+			if (maxEntries < 1)
+				throw new IllegalArgumentException("maxEntries must be positive");
+			this.maxEntries = maxEntries;
+			return this;
+		}
+
+		/**
+		 * Number of fetch threads, ignored if an executor is set
+		 */
+		public FetcherBuilder threads(int threads) {
+			if (threads < 1)
+				throw new IllegalArgumentException("At least one thread is required");
+			this.threads = threads;
+			return this;
+		}
+
+		/**
+		 * Executor running the blocking HTTP requests, <code>null</code> for a
+		 * daemon thread pool owned by the fetcher
+		 */
+		public FetcherBuilder executor(Executor executor) {
+			this.executor = executor;
+			return this;
+		}
+
+		public DescriptionFetcher build() {
+			return new DescriptionFetcher(this);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package io.github.vveird.ssdp;
+
+/**
+ * Changes of the devices known to a {@link SSDPDeviceRegistry}. Unlike
+ * {@link SSDPListener} it is not called for refreshes that repeat what is
+ * already known, only when a device appears, changes or goes away.
+ * <p>
+ * Methods are called on the thread that handled the message or on the expiry
+ * timer and must return quickly.
+ */
+public interface DeviceChangeListener {
+
+	/**
+	 * Called when a device is seen for the first time or again after it was
+	 * removed
+	 */
+	public default void added(SSDPMessage msg) {
+	}
+
+	/**
+	 * Called when the LOCATION, SERVER or another header of a device that is
+	 * not only about the message itself (like DATE or CACHE-CONTROL) changed
+	 */
+	public default void updated(SSDPMessage previous, SSDPMessage msg) {
+	}
+
+	/**
+	 * Called when a device was not refreshed within its max-age
+	 * @param msg Last message seen for the device
+	 */
+	public default void expired(SSDPMessage msg) {
+	}
+
+	/**
+	 * Called when a device left with <code>ssdp:byebye</code> or was removed
+	 * from the registry
+	 * @param msg Last message seen for the device
+	 */
+	public default void removed(SSDPMessage msg) {
+	}
+}
@@ -0,0 +1,87 @@
+package io.github.vveird.ssdp;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Device description document fetched from the LOCATION of a device by the
+ * {@link DescriptionFetcher}.
+ */
+public class DeviceDescription {
+
+	private final String location;
+
+	private final byte[] content;
+
+	private final String contentType;
+
+	private final String etag;
+
+	private final String lastModified;
+
+	private final long fetchTime;
+
+	private final boolean revalidated;
+
+	DeviceDescription(String location, byte[] content, String contentType, String etag, String lastModified,
+			boolean revalidated) {
+		this.location = location;
+		this.content = content;
+		this.contentType = contentType;
+		this.etag = etag;
+		this.lastModified = lastModified;
+		this.fetchTime = System.currentTimeMillis();
+		this.revalidated = revalidated;
+	}
+
+	public String getLocation() {
+		return location;
+	}
+
+	/**
+	 * @return Body of the document, shared by all users of the cache and must
+	 *         not be modified
+	 */
+	public byte[] getContent() {
+		return content;
+	}
+
+	/**
+	 * @return Body of the document decoded as UTF-8
+	 */
+	public String getContentAsString() {
+		return new String(content, StandardCharsets.UTF_8);
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @return ETag sent by the device, <code>null</code> if none
+	 */
+	public String getETag() {
+		return etag;
+	}
+
+	/**
+	 * @return Last-Modified sent by the device, <code>null</code> if none
+	 */
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return Time the document was fetched or revalidated in milliseconds
+	 */
+	public long getFetchTime() {
+		return fetchTime;
+	}
+
+	/**
+	 * @return <code>true</code> if the device answered a conditional request
+	 *         with 304 and the previous content was kept
+	 */
+	public boolean isRevalidated() {
+		return revalidated;
+	}
+}
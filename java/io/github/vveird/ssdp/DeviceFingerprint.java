@@ -0,0 +1,112 @@
+package io.github.vveird.ssdp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 64 bit hash of what a message says about a device: LOCATION, SERVER and
+ * all other headers except those that differ between the messages of an
+ * unchanged device, like DATE, CACHE-CONTROL or NT and ST. The order of the
+ * headers and the case of their names do not matter, of repeated headers
+ * only the last value counts. Received messages are
+ * hashed from their raw bytes without decoding them.
+ */
+final class DeviceFingerprint {
+
+	/**
+	 * Headers not describing the device, USN is the key of the device itself
+	 */
+	private static final String[] IGNORED = { "HOST", "CACHE-CONTROL", "DATE", "NT", "NTS", "ST", "USN", "EXT",
+			"MAN", "MX", "CONTENT-LENGTH", SSDPParser.HTTP_RESPONSE_STATUS_CODE,
+			SSDPParser.HTTP_RESPONSE_STATUS_DESC };
+
+	private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+
+	private static final long FNV_PRIME = 0x100000001B3L;
+
+	private DeviceFingerprint() {
+	}
+
+	static long of(SSDPMessage msg) {
+		byte[] raw = msg.raw();
+		if (raw == null)
+			return decoded(msg);
+		long fingerprint = 0;
+		for (int i = 0; i < msg.headerCount(); i++) {
+			int name = msg.nameField(i);
+			int value = msg.valueField(i);
+			int nameStart = SSDPParser.start(name);
+			int nameEnd = SSDPParser.end(name);
+			int valueStart = SSDPParser.start(value);
+			int valueEnd = SSDPParser.end(value);
+			// Only the last of repeated headers counts, as in getHeader
+			if (valueStart == valueEnd || ignored(raw, nameStart, nameEnd) || msg.isRepeated(i))
+				continue;
+			long h = FNV_OFFSET;
+			for (int j = nameStart; j < nameEnd; j++) {
+				h = (h ^ SSDPParser.toUpper(raw[j])) * FNV_PRIME;
+			}
+			h = (h ^ ':') * FNV_PRIME;
+			for (int j = valueStart; j < valueEnd; j++) {
+				h = (h ^ (raw[j] & 0xFF)) * FNV_PRIME;
+			}
+			// Summed so the order of the headers does not matter
+			fingerprint += mix(h);
+		}
+		return fingerprint;
+	}
+
+	private static long decoded(SSDPMessage msg) {
+		long fingerprint = header("LOCATION", msg.getLocation()) + header("SERVER", msg.getServer());
+		for (Map.Entry<String, String> e : msg.headerMap().entrySet()) {
+			String name = e.getKey().toUpperCase(Locale.ROOT);
+			if (!ignored(name) && !"LOCATION".equals(name) && !"SERVER".equals(name))
+				fingerprint += header(name, e.getValue());
+		}
+		return fingerprint;
+	}
+
+	private static long header(String upperCaseName, String value) {
+		if (value == null || value.isEmpty())
+			return 0;
+		long h = FNV_OFFSET;
+		for (int j = 0; j < upperCaseName.length(); j++) {
+			h = (h ^ upperCaseName.charAt(j)) * FNV_PRIME;
+		}
+		h = (h ^ ':') * FNV_PRIME;
+		for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			h = (h ^ (b & 0xFF)) * FNV_PRIME;
+		}
+		return mix(h);
+	}
+
+	private static boolean ignored(byte[] raw, int start, int end) {
+		for (String name : IGNORED) {
+			if (SSDPParser.equalsIgnoreCase(raw, start, end, name))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean ignored(String upperCaseName) {
+		for (String name : IGNORED) {
+			if (name.equals(upperCaseName))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Final mix of MurmurHash3, spreads the FNV hash over all bits before
+	 * summing
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
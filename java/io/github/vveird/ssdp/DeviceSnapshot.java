@@ -0,0 +1,297 @@
+package io.github.vveird.ssdp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import io.github.vveird.ssdp.SSDPStatic.SSDPType;
+
+/**
+ * Binary snapshot of the devices of a {@link SSDPDeviceRegistry}. A snapshot
+ * is written to a temporary file next to the target and moved over it, so a
+ * crash leaves either the old or the new snapshot. It is read into memory
+ * in one go, not mapped, so no mapping keeps the file from being replaced on
+ * Windows. A CRC32 over all entries detects damaged files.
+ * <p>
+ * Layout: magic, version, entry count, entries, CRC32. Every entry holds the
+ * absolute expiry and receive time, the sender, type, status, LOCATION,
+ * SERVER, ST, USN, NTS and the remaining headers. Strings are stored as
+ * length prefixed UTF-8, a length of -1 is <code>null</code>.
+ */
+final class DeviceSnapshot {
+
+	private static final int MAGIC = 0x53534450; // "SSDP"
+
+	private static final int VERSION = 1;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	static class Entry {
+
+		final SSDPMessage message;
+
+		final long expiresAt;
+
+		Entry(SSDPMessage message, long expiresAt) {
+			this.message = message;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private DeviceSnapshot() {
+	}
+
+	/**
+	 * Replaces the snapshot file with the entries.
+	 */
+	static void write(Path file, Collection<Entry> entries) throws IOException {
+		Path dir = file.toAbsolutePath().getParent();
+		if (dir != null)
+			Files.createDirectories(dir);
+		Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				CRC32 crc = new CRC32();
+				ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+				buf.putInt(MAGIC).putInt(VERSION).putInt(entries.size());
+				int bodyStart = buf.position();
+				for (Entry e : entries) {
+					int mark = buf.position();
+					try {
+						writeEntry(buf, e);
+					} catch (BufferOverflowException ex) {
+						// Flush and retry, an entry larger than the buffer gets a larger one
+						buf.position(mark);
+						flush(channel, buf, bodyStart, crc);
+						bodyStart = 0;
+						if (buf.capacity() < estimate(e))
+							buf = ByteBuffer.allocate(estimate(e));
+						writeEntry(buf, e);
+					}
+				}
+				flush(channel, buf, bodyStart, crc);
+				buf.putLong(crc.getValue());
+				buf.flip();
+				while (buf.hasRemaining()) {
+					channel.write(buf);
+				}
+				channel.force(true);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Writes the buffer to the channel, the bytes from bodyStart on are added
+	 * to the checksum.
+	 */
+	private static void flush(FileChannel channel, ByteBuffer buf, int bodyStart, CRC32 crc) throws IOException {
+		buf.flip();
+		ByteBuffer body = buf.duplicate();
+		body.position(bodyStart);
+		crc.update(body);
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+
+	/**
+	 * Upper bound of the encoded size of an entry
+	 */
+	private static int estimate(Entry e) {
+		SSDPMessage msg = e.message;
+		int size = 64 + 6 * 4 + 3 * (length(msg.getResponseDescriptor()) + length(msg.getLocation())
+				+ length(msg.getServer()) + length(msg.getServiceType()) + length(msg.getUSN()) + length(msg.getNTS()));
+		for (String name : msg.getHeaders()) {
+			size += 8 + 3 * (length(name) + length(msg.getHeader(name)));
+		}
+		return size;
+	}
+
+	private static int length(String s) {
+		return s != null ? s.length() : 0;
+	}
+
+	/**
+	 * Reads the entries of a snapshot, expired entries are skipped.
+	 * @throws IOException if the file is damaged or of an unknown version
+	 */
+	static List<Entry> read(Path file) throws IOException {
+		ByteBuffer in = null;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("Device snapshot " + file + " is too large");
+			in = ByteBuffer.allocate((int) size);
+			while (in.hasRemaining()) {
+				if (channel.read(in) < 0)
+					break;
+			}
+		}
+		in.flip();
+		return read(in, file);
+	}
+
+	private static List<Entry> read(ByteBuffer in, Path file) throws IOException {
+		try {
+			if (in.getInt() != MAGIC)
+				throw new IOException(file + " is no device snapshot");
+			int version = in.getInt();
+			if (version != VERSION)
+				throw new IOException("Unknown device snapshot version " + version + " of " + file);
+			int count = in.getInt();
+			int bodyStart = in.position();
+			long now = System.currentTimeMillis();
+			List<Entry> entries = new ArrayList<>(Math.min(count, 1 << 16));
+			for (int i = 0; i < count; i++) {
+				Entry e = readEntry(in, now);
+				if (e != null)
+					entries.add(e);
+			}
+			int bodyEnd = in.position();
+			long expected = in.getLong();
+			CRC32 crc = new CRC32();
+			ByteBuffer body = in.duplicate();
+			body.position(bodyStart);
+			body.limit(bodyEnd);
+			crc.update(body);
+			if (crc.getValue() != expected)
+				throw new IOException("Device snapshot " + file + " is damaged");
+			return entries;
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Device snapshot " + file + " is truncated", e);
+		}
+	}
+
+	private static void writeEntry(ByteBuffer out, Entry e) {
+		SSDPMessage msg = e.message;
+		out.putLong(e.expiresAt);
+		out.putLong(msg.getReceiveTime());
+		SocketAddress ip = msg.getIpAddress();
+		if (ip instanceof InetSocketAddress && ((InetSocketAddress) ip).getAddress() != null) {
+			byte[] address = ((InetSocketAddress) ip).getAddress().getAddress();
+			out.put((byte) address.length);
+			out.put(address);
+			out.putShort((short) ((InetSocketAddress) ip).getPort());
+		}
+		else {
+			out.put((byte) 0);
+		}
+		out.put((byte) (msg.getSSDPType() != null ? msg.getSSDPType().ordinal() : -1));
+		out.putShort((short) msg.getResponseCode());
+		writeString(out, msg.getResponseDescriptor());
+		writeString(out, msg.getLocation());
+		writeString(out, msg.getServer());
+		writeString(out, msg.getServiceType());
+		writeString(out, msg.getUSN());
+		writeString(out, msg.getNTS());
+		List<String> headers = msg.getHeaders();
+		out.putShort((short) headers.size());
+		for (String name : headers) {
+			writeString(out, name);
+			writeString(out, msg.getHeader(name));
+		}
+	}
+
+	/**
+	 * @return Entry, <code>null</code> if it expired before <code>now</code>
+	 *         and was skipped without decoding
+	 */
+	private static Entry readEntry(ByteBuffer in, long now) throws IOException {
+		long expiresAt = in.getLong();
+		long receiveTime = in.getLong();
+		int addressLength = in.get();
+		if (expiresAt <= now) {
+			skipEntry(in, addressLength);
+			return null;
+		}
+		SocketAddress ip = null;
+		if (addressLength > 0) {
+			byte[] address = new byte[addressLength];
+			in.get(address);
+			ip = new InetSocketAddress(InetAddress.getByAddress(address), in.getShort() & 0xFFFF);
+		}
+		int type = in.get();
+		SSDPType ssdpType = type >= 0 && type < SSDPType.values().length ? SSDPType.values()[type] : null;
+		int responseCode = in.getShort();
+		String responseDescriptor = readString(in);
+		String location = readString(in);
+		String server = readString(in);
+		String st = readString(in);
+		String usn = readString(in);
+		String nts = readString(in);
+		int headerCount = in.getShort() & 0xFFFF;
+		Map<String, String> headers = new LinkedHashMap<>();
+		for (int i = 0; i < headerCount; i++) {
+			headers.put(readString(in), readString(in));
+		}
+		SSDPMessage msg = new SSDPMessage(ssdpType, ip, location, server, st, usn, nts, headers, null, responseCode,
+				responseDescriptor, receiveTime);
+		return new Entry(msg, expiresAt);
+	}
+
+	private static void skipEntry(ByteBuffer in, int addressLength) {
+		if (addressLength > 0)
+			skip(in, addressLength + 2);
+		skip(in, 3);
+		for (int i = 0; i < 6; i++) {
+			skipString(in);
+		}
+		int headerCount = in.getShort() & 0xFFFF;
+		for (int i = 0; i < headerCount * 2; i++) {
+			skipString(in);
+		}
+	}
+
+	private static void skipString(ByteBuffer in) {
+		int length = in.getInt();
+		if (length > 0)
+			skip(in, length);
+	}
+
+	private static void skip(ByteBuffer in, int bytes) {
+		if (bytes > in.remaining())
+			throw new BufferUnderflowException();
+		in.position(in.position() + bytes);
+	}
+
+	private static void writeString(ByteBuffer out, String s) {
+		if (s == null) {
+			out.putInt(-1);
+			return;
+		}
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.putInt(b.length);
+		out.put(b);
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		if (length < 0)
+			return null;
+		if (length > in.remaining())
+			throw new BufferUnderflowException();
+		byte[] b = new byte[length];
+		in.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+}
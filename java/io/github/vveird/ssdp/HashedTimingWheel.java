@@ -0,0 +1,160 @@
+package io.github.vveird.ssdp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Hashed timing wheel running delayed tasks on a single daemon thread.
+ * Scheduling and cancelling cost O(1), every tick only visits the tasks of
+ * one bucket. Tasks are executed with tick precision, a failing task does not
+ * affect other tasks.
+ */
+public class HashedTimingWheel implements AutoCloseable {
+
+	public interface Timeout {
+		/**
+		 * @return <code>true</code> if the task was cancelled before it ran
+		 */
+		public boolean cancel();
+	}
+
+	private Logger logger = LogManager.getLogger(HashedTimingWheel.class);
+
+	private final Object lock = new Object();
+
+	private final Entry[] buckets;
+
+	private final int mask;
+
+	private final long tickNanos;
+
+	private final Thread thread;
+
+	private volatile long tick = 0;
+
+	private volatile boolean looping = true;
+
+	/**
+	 * @param name Name of the wheel thread
+	 * @param tickMillis Duration of one tick in milliseconds
+	 * @param wheelSize Number of buckets, rounded up to a power of two
+	 */
+	public HashedTimingWheel(String name, long tickMillis, int wheelSize) {
+		if (tickMillis < 1 || wheelSize < 1)
+			throw new IllegalArgumentException("Tick duration and wheel size must be positive");
+		int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+		this.buckets = new Entry[size];
+		this.mask = size - 1;
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		this.thread = new Thread(this::run);
+		this.thread.setDaemon(true);
+		this.thread.setName(name);
+		this.thread.start();
+	}
+
+	/**
+	 * Runs the task once after the given delay.
+	 */
+	public Timeout schedule(Runnable task, long delayMillis) {
+		long ticks = (TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)) + tickNanos - 1) / tickNanos;
+		Entry e = new Entry(task);
+		synchronized (lock) {
+			e.deadline = tick + Math.max(1, ticks);
+			int bucket = (int) (e.deadline & mask);
+			e.next = buckets[bucket];
+			if (e.next != null)
+				e.next.prev = e;
+			buckets[bucket] = e;
+		}
+		return e;
+	}
+
+	private void run() {
+		long start = System.nanoTime();
+		List<Runnable> expired = new ArrayList<>();
+		while (looping) {
+			long sleep = start + (tick + 1) * tickNanos - System.nanoTime();
+			if (sleep > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				continue;
+			}
+			synchronized (lock) {
+				long current = ++tick;
+				Entry e = buckets[(int) (current & mask)];
+				while (e != null) {
+					Entry next = e.next;
+					if (e.deadline <= current) {
+						unlink(e);
+						expired.add(e.task);
+					}
+					e = next;
+				}
+			}
+			for (Runnable task : expired) {
+				try {
+					task.run();
+				} catch (Throwable t) {
+					logger.error("Timing wheel task failed", t);
+				}
+			}
+			expired.clear();
+		}
+	}
+
+	/**
+	 * Must be called while holding the lock.
+	 */
+	private void unlink(Entry e) {
+		if (e.prev != null)
+			e.prev.next = e.next;
+		else
+			buckets[(int) (e.deadline & mask)] = e.next;
+		if (e.next != null)
+			e.next.prev = e.prev;
+		e.prev = null;
+		e.next = null;
+		e.linked = false;
+	}
+
+	@Override
+	public void close() {
+		looping = false;
+		thread.interrupt();
+	}
+
+	private class Entry implements Timeout {
+
+		final Runnable task;
+
+		long deadline;
+
+		Entry prev;
+
+		Entry next;
+
+		boolean linked = true;
+
+		Entry(Runnable task) {
+			this.task = task;
+		}
+
+		@Override
+		public boolean cancel() {
+			synchronized (lock) {
+				if (!linked)
+					return false;
+				unlink(this);
+				return true;
+			}
+		}
+	}
+}
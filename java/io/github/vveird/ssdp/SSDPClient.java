@@ -28,9 +28,14 @@ import java.net.DatagramSocket;
 import java.net.InetAddress; 
 import java.net.InetSocketAddress; 
 import java.net.MulticastSocket; 
-import java.net.NetworkInterface; 
 import java.net.SocketAddress; 
 import java.net.SocketException; 
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+
+import io.github.vveird.ssdp.transport.ChannelTransport;
+import io.github.vveird.ssdp.transport.SocketTransport;
+import io.github.vveird.ssdp.transport.Transport;
  
 public class SSDPClient { 
  
@@ -50,13 +55,12 @@ public class SSDPClient {
 //    public static final String ST_ContentDirectory = ST + ":" + UPNP.SERVICE_CONTENT_DIRECTORY_1; 
  
  
-    DatagramSocket datagramSocket; 
-    MulticastSocket multicastSocket; 
- 
-    SocketAddress multicastGroup; 
-    NetworkInterface networkInterface; 
-    InetAddress localInAddress; 
+    /* Sockets, channels or an in-memory LAN moving the datagrams */
+    Transport transport;
  
+    /* Receive buffers of the methods returning a new packet, one per receive thread */
+    private final BufferPool receiveBuffers = new BufferPool(BufferPool.MAX_DATAGRAM_SIZE, 2);
+
     int timeout = 0; 
     static int MX = 5; 
  
@@ -65,58 +69,99 @@ public class SSDPClient {
     } 
  
     public SSDPClient(InetAddress source, MulticastSocket mcSocket, DatagramSocket dgSocket) throws IOException { 
-        localInAddress = source; 
-        multicastSocket = mcSocket; 
-        datagramSocket = dgSocket; 
- 
-        multicastGroup = new InetSocketAddress(SSDPStatic.MULTICAST_ADDRESS, SSDPStatic.MULTICAST_PORT); 
-        networkInterface = NetworkInterface.getByInetAddress(localInAddress); 
-        multicastSocket.joinGroup(multicastGroup, networkInterface); 
- 
-        datagramSocket.setReuseAddress(true); 
-        datagramSocket.bind(new InetSocketAddress(localInAddress, 0)); 
+        this(new SocketTransport(source, mcSocket, dgSocket, BufferPool.MAX_DATAGRAM_SIZE));
     } 
+
+    /**
+     * Creates a client using non-blocking channels instead of sockets. The
+     * channels are meant to be served by a selector, the receive methods of this
+     * client can not be used.
+     */
+    public SSDPClient(InetAddress source, DatagramChannel mcChannel, DatagramChannel ucChannel) throws IOException {
+        this(new ChannelTransport(source, mcChannel, ucChannel));
+    }
+
+    /**
+     * Creates a client on the transport. Received datagrams are pushed to the
+     * receiver passed to {@link #start(Transport.Receiver)}, the blocking
+     * receive methods only work on a {@link SocketTransport}.
+     */
+    public SSDPClient(Transport transport) {
+        this.transport = transport;
+    }
+
+    /** Creates a client on non-blocking IPv4 channels */
+    public static SSDPClient openChannels(InetAddress source) throws IOException {
+        return new SSDPClient(ChannelTransport.open(source));
+    }
+
+    /** Starts pushing received datagrams to the receiver */
+    public void start(Transport.Receiver receiver) throws IOException {
+        transport.start(receiver);
+    }
  
     /** Used to send SSDP packet */ 
     public void sendMulticast(String data) throws IOException { 
-        DatagramPacket dp = new DatagramPacket(data.getBytes(), data.length(), multicastGroup); 
-        datagramSocket.send(dp); 
+        sendMulticast(data.getBytes()); 
+    }
+
+    /** Used to send an encoded SSDP packet */
+    public void sendMulticast(byte[] data) throws IOException {
+        transport.sendMulticast(data);
     }
 
 	public void sendResponse(SSDPMessage msg) throws IOException {
-		String data = msg.toString();
-        DatagramPacket dp = new DatagramPacket(data.getBytes(), data.length(), msg.getIpAddress()); 
-        datagramSocket.send(dp); 
-		
+		send(msg.toString().getBytes(), msg.getIpAddress());
 	} 
  
     /** Used to send SSDP packet */ 
     public void send(String data, InetSocketAddress destination) throws IOException { 
-        DatagramPacket dp = new DatagramPacket(data.getBytes(), data.length(), destination); 
- 
-        datagramSocket.send(dp); 
+        send(data.getBytes(), destination); 
     } 
+
+    /** Used to send an encoded SSDP packet */
+    public void send(byte[] data, SocketAddress destination) throws IOException {
+        transport.send(data, destination);
+    }
  
  
-    /** Used to receive SSDP Response packet */ 
+    /** Used to receive SSDP Response packet, returned in a buffer of its exact length */ 
     public DatagramPacket responseReceive() throws IOException { 
-        byte[] buf = new byte[1024]; 
-        DatagramPacket dp = new DatagramPacket(buf, buf.length); 
- 
-        datagramSocket.receive(dp); 
- 
-        return dp; 
+        return receiveCopy(sockets().getDatagramSocket()); 
     } 
+
+    /** Used to receive SSDP Response packet into the buffer of the given packet */
+    public void responseReceive(DatagramPacket dp) throws IOException {
+        sockets().getDatagramSocket().receive(dp);
+    }
  
-    /** Used to receive SSDP Multicast packet */ 
+    /** Used to receive SSDP Multicast packet, returned in a buffer of its exact length */ 
     public DatagramPacket multicastReceive() throws IOException { 
-        byte[] buf = new byte[1024]; 
-        DatagramPacket dp = new DatagramPacket(buf, buf.length); 
- 
-        multicastSocket.receive(dp); 
- 
-        return dp; 
+        return receiveCopy(sockets().getMulticastSocket()); 
     } 
+
+    /** Used to receive SSDP Multicast packet into the buffer of the given packet */
+    public void multicastReceive(DatagramPacket dp) throws IOException {
+        sockets().getMulticastSocket().receive(dp);
+    }
+
+    /** Receives into a pooled buffer of the largest datagram size and copies the datagram out */
+    private DatagramPacket receiveCopy(DatagramSocket socket) throws IOException {
+        byte[] buf = receiveBuffers.acquireArray();
+        try {
+            DatagramPacket dp = new DatagramPacket(buf, buf.length);
+            socket.receive(dp);
+            return new DatagramPacket(Arrays.copyOf(buf, dp.getLength()), dp.getLength(), dp.getSocketAddress());
+        } finally {
+            receiveBuffers.release(buf);
+        }
+    }
+
+    private SocketTransport sockets() {
+        if (!(transport instanceof SocketTransport))
+            throw new IllegalStateException("Blocking receive needs a socket transport, not " + transport);
+        return (SocketTransport) transport;
+    }
  
 //    /** Starts the socket */ 
 //    public void start() { 
@@ -124,39 +169,61 @@ public class SSDPClient {
 //    } 
  
     public boolean isConnected() { 
-        return datagramSocket != null && multicastSocket != null && datagramSocket.isConnected() && multicastSocket.isConnected(); 
+        if (transport instanceof ChannelTransport) {
+            ChannelTransport channels = (ChannelTransport) transport;
+            return channels.getUnicastChannel().isConnected() && channels.getMulticastChannel().isConnected();
+        }
+        if (transport instanceof SocketTransport) {
+            SocketTransport sockets = (SocketTransport) transport;
+            return sockets.getDatagramSocket().isConnected() && sockets.getMulticastSocket().isConnected(); 
+        }
+        return false;
     } 
+
+    /** @return Unicast channel, <code>null</code> if the transport has no channels */
+    public DatagramChannel getUnicastChannel() {
+        return transport instanceof ChannelTransport ? ((ChannelTransport) transport).getUnicastChannel() : null;
+    }
+
+    /** @return Multicast channel, <code>null</code> if the transport has no channels */
+    public DatagramChannel getMulticastChannel() {
+        return transport instanceof ChannelTransport ? ((ChannelTransport) transport).getMulticastChannel() : null;
+    }
+
+    public InetAddress getLocalAddress() {
+        return transport.getLocalAddress();
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
  
     /** Close the socket */ 
     public void close() { 
-        if (multicastSocket != null) { 
-            try { 
-                multicastSocket.leaveGroup(multicastGroup, networkInterface); 
-            } catch (IOException e) { 
-                e.printStackTrace(); 
-            } 
-            multicastSocket.close(); 
-        } 
- 
-        if (datagramSocket != null) { 
-            datagramSocket.disconnect(); 
-            datagramSocket.close(); 
-        } 
+        transport.close();
     } 
  
     public void setTimeout(int timeout) throws SocketException { 
+        if (this.timeout == timeout) 
+            return; 
         this.timeout = timeout; 
-        datagramSocket.setSoTimeout(this.timeout); 
+        if (transport instanceof SocketTransport) 
+            ((SocketTransport) transport).getDatagramSocket().setSoTimeout(this.timeout); 
     } 
  
     public static String getSSDPSearchMessage(String ST) { 
+        return getSSDPSearchMessage(ST, MX);
+    }
+
+    /** M-SEARCH for the search target, answers are expected within mx seconds */
+    public static String getSSDPSearchMessage(String ST, int mx) {
         StringBuilder sb = new StringBuilder(); 
  
         sb.append(SSDPStatic.SSDPType.M_SEARCH.toString() + SSDPStatic.NEWLINE); 
         sb.append("HOST: " + SSDPStatic.MULTICAST_ADDRESS + ":" + SSDPStatic.MULTICAST_PORT + SSDPStatic.NEWLINE); 
         sb.append("MAN: \"ssdp:discover\"" + SSDPStatic.NEWLINE); 
         sb.append("ST: ").append(ST).append(SSDPStatic.NEWLINE); 
-        sb.append("MX: ").append(MX).append(SSDPStatic.NEWLINE); 
+        sb.append("MX: ").append(mx).append(SSDPStatic.NEWLINE); 
         if (ST.contains("udap")) { 
             sb.append("USER-AGENT: UDAP/2.0" + SSDPStatic.NEWLINE); 
         } 
@@ -164,4 +231,4 @@ public class SSDPClient {
  
         return sb.toString(); 
     }
-}
\ No newline at end of file
+}
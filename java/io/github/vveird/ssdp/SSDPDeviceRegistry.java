@@ -0,0 +1,382 @@
+package io.github.vveird.ssdp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Concurrent registry of the devices announced on the network, keyed by USN.
+ * Add it to a server with <code>addSSDPListener</code>. Entries are added on
+ * <code>ssdp:alive</code> and M-SEARCH responses, removed on
+ * <code>ssdp:byebye</code> and expire after the max-age of the last message
+ * seen for them.
+ * <p>
+ * {@link DeviceChangeListener}s learn about devices being added, changed,
+ * expired and removed without being called for every refresh.
+ */
+public class SSDPDeviceRegistry implements SSDPListener, AutoCloseable {
+
+	/**
+	 * max-age assumed for messages without CACHE-CONTROL header, the UPnP
+	 * default of 30 minutes
+	 */
+	public static final int DEFAULT_MAX_AGE = 1800;
+
+	private Logger logger = LogManager.getLogger(SSDPDeviceRegistry.class);
+
+	private final ConcurrentHashMap<String, Device> devices = new ConcurrentHashMap<>();
+
+	private final List<DeviceChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+
+	private final HashedTimingWheel wheel;
+
+	private final boolean ownsWheel;
+
+	/**
+	 * File the devices are saved to regularly, <code>null</code> if not
+	 * persisted
+	 */
+	private volatile Path snapshotFile = null;
+
+	private HashedTimingWheel.Timeout snapshotTimeout = null;
+
+	/**
+	 * Thread writing the snapshots, started with the first call of
+	 * {@link #persist(Path, long)}
+	 */
+	private ExecutorService snapshotWriter = null;
+
+	public SSDPDeviceRegistry() {
+		this(new HashedTimingWheel("SSDP Device Expiry", 1_000, 512), true);
+	}
+
+	/**
+	 * Creates a registry scheduling expiry on a shared timing wheel.
+	 */
+	public SSDPDeviceRegistry(HashedTimingWheel wheel) {
+		this(wheel, false);
+	}
+
+	private SSDPDeviceRegistry(HashedTimingWheel wheel, boolean ownsWheel) {
+		this.wheel = wheel;
+		this.ownsWheel = ownsWheel;
+	}
+
+	@Override
+	public void notify(SSDPMessage msg) {
+		if (msg.isByeBye())
+			remove(msg.getUSN());
+		else
+			put(msg);
+	}
+
+	@Override
+	public void msearchResponse(SSDPMessage msg) {
+		put(msg);
+	}
+
+	@Override
+	public void msearch(SSDPMessage msg) {
+	}
+
+	public void addDeviceChangeListener(DeviceChangeListener listener) {
+		changeListeners.add(listener);
+	}
+
+	public void removeDeviceChangeListener(DeviceChangeListener listener) {
+		changeListeners.remove(listener);
+	}
+
+	/**
+	 * @return Last message seen for the USN or <code>null</code>
+	 */
+	public SSDPMessage get(String usn) {
+		Device d = devices.get(usn);
+		return d != null ? d.message : null;
+	}
+
+	public boolean contains(String usn) {
+		return devices.containsKey(usn);
+	}
+
+	/**
+	 * @return Snapshot of the last message of every known device
+	 */
+	public Collection<SSDPMessage> getDevices() {
+		Collection<SSDPMessage> result = new ArrayList<>(devices.size());
+		for (Device d : devices.values()) {
+			result.add(d.message);
+		}
+		return result;
+	}
+
+	public int size() {
+		return devices.size();
+	}
+
+	/**
+	 * Streams the last message of every known device to the output as JSON
+	 * array, see {@link SSDPJsonWriter}. The output is flushed, not closed.
+	 */
+	public void exportJson(OutputStream out) throws IOException {
+		exportJson(new SSDPJsonWriter(out));
+	}
+
+	/**
+	 * Streams the last message of every known device to the writer as JSON
+	 * array, see {@link SSDPJsonWriter}. The writer is flushed, not closed.
+	 */
+	public void exportJson(Writer writer) throws IOException {
+		exportJson(new SSDPJsonWriter(writer));
+	}
+
+	private void exportJson(SSDPJsonWriter json) throws IOException {
+		json.beginArray();
+		for (Device d : devices.values()) {
+			json.write(d.message);
+		}
+		json.endArray();
+		json.flush();
+	}
+
+	/**
+	 * Adds or refreshes the device of the message.
+	 */
+	public void put(SSDPMessage msg) {
+		put(msg, msg.getMaxAge() < 0 ? msg.getReceiveTime() + DEFAULT_MAX_AGE * 1_000L : msg.getExpiryTime());
+	}
+
+	/**
+	 * Adds or refreshes the device of the message.
+	 * @param expiresAt Time in milliseconds the device expires at
+	 */
+	public void put(SSDPMessage msg, long expiresAt) {
+		if (msg.getUSN() == null)
+			return;
+		boolean track = !changeListeners.isEmpty();
+		// Message replaced by this one, the message itself for a new device and
+		// null if nothing changed
+		SSDPMessage[] changed = new SSDPMessage[1];
+		devices.compute(msg.getUSN(), (usn, d) -> {
+			if (d == null) {
+				d = new Device(usn);
+				changed[0] = msg;
+			}
+			else if (track) {
+				// Fingerprints are only taken while there are listeners
+				long fingerprint = DeviceFingerprint.of(msg);
+				if (!d.fingerprinted)
+					d.fingerprint = DeviceFingerprint.of(d.message);
+				if (fingerprint != d.fingerprint)
+					changed[0] = d.message;
+				d.fingerprint = fingerprint;
+				d.fingerprinted = true;
+			}
+			else {
+				d.fingerprinted = false;
+			}
+			d.message = msg;
+			d.expiresAt = expiresAt;
+			// Only reschedule if the device expires earlier than checked for,
+			// later expiry is picked up when the scheduled check runs
+			if (d.timeout == null || expiresAt < d.checkAt)
+				d.schedule();
+			return d;
+		});
+		if (!track || changed[0] == null)
+			return;
+		SSDPMessage previous = changed[0];
+		if (previous == msg)
+			fire(l -> l.added(msg));
+		else
+			fire(l -> l.updated(previous, msg));
+	}
+
+	/**
+	 * Removes the device, the change listeners are told it was removed.
+	 * @return Last message seen for the USN or <code>null</code>
+	 */
+	public SSDPMessage remove(String usn) {
+		if (usn == null)
+			return null;
+		Device d = devices.remove(usn);
+		if (d == null)
+			return null;
+		d.timeout.cancel();
+		fire(l -> l.removed(d.message));
+		return d.message;
+	}
+
+	private void fire(Consumer<DeviceChangeListener> event) {
+		for (DeviceChangeListener l : changeListeners) {
+			try {
+				event.accept(l);
+			} catch (RuntimeException e) {
+				logger.error("Error in device change listener " + l, e);
+			}
+		}
+	}
+
+	public void clear() {
+		for (String usn : devices.keySet()) {
+			remove(usn);
+		}
+	}
+
+	/**
+	 * Writes all devices to a snapshot file, replacing it atomically.
+	 */
+	public void save(Path file) throws IOException {
+		List<DeviceSnapshot.Entry> entries = new ArrayList<>(devices.size());
+		for (Device d : devices.values()) {
+			entries.add(new DeviceSnapshot.Entry(d.message, d.expiresAt));
+		}
+		DeviceSnapshot.write(file, entries);
+	}
+
+	/**
+	 * Adds the devices of a snapshot file that have not expired yet. Devices
+	 * already known are replaced.
+	 * @return Number of devices loaded, 0 if the file does not exist
+	 * @throws IOException if the file cannot be read or is damaged
+	 */
+	public int load(Path file) throws IOException {
+		List<DeviceSnapshot.Entry> entries = null;
+		try {
+			entries = DeviceSnapshot.read(file);
+		} catch (NoSuchFileException e) {
+			return 0;
+		}
+		for (DeviceSnapshot.Entry e : entries) {
+			put(e.message, e.expiresAt);
+		}
+		return entries.size();
+	}
+
+	/**
+	 * Saves the devices to the file every interval and on {@link #close()}.
+	 * Writing happens on a thread of the registry, not on the timer thread.
+	 */
+	public synchronized void persist(Path file, long intervalMillis) {
+		if (snapshotTimeout != null)
+			snapshotTimeout.cancel();
+		if (snapshotWriter == null) {
+			snapshotWriter = Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r);
+				t.setDaemon(true);
+				t.setName("SSDP Device Snapshot");
+				return t;
+			});
+		}
+		Executor writer = snapshotWriter;
+		this.snapshotFile = file;
+		this.snapshotTimeout = wheel.schedule(() -> {
+			try {
+				CompletableFuture.runAsync(() -> saveSnapshot(file), writer).whenComplete((r, t) -> {
+					synchronized (this) {
+						if (snapshotFile == file)
+							persist(file, intervalMillis);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// Closed meanwhile, close() saves the snapshot itself
+			}
+		}, intervalMillis);
+	}
+
+	private void saveSnapshot(Path file) {
+		try {
+			save(file);
+		} catch (IOException e) {
+			logger.error("Error saving device snapshot " + file, e);
+		}
+	}
+
+	@Override
+	public void close() {
+		Path file = null;
+		synchronized (this) {
+			file = snapshotFile;
+			snapshotFile = null;
+			if (snapshotTimeout != null)
+				snapshotTimeout.cancel();
+			if (snapshotWriter != null)
+				snapshotWriter.shutdown();
+			snapshotWriter = null;
+		}
+		if (file != null)
+			saveSnapshot(file);
+		// Closing forgets the devices, they did not leave
+		changeListeners.clear();
+		clear();
+		if (ownsWheel)
+			wheel.close();
+	}
+
+	private class Device implements Runnable {
+
+		final String usn;
+
+		volatile SSDPMessage message;
+
+		volatile long expiresAt;
+
+		long checkAt;
+
+		HashedTimingWheel.Timeout timeout;
+
+		/**
+		 * Fingerprint of the message, only valid if <code>fingerprinted</code>
+		 */
+		long fingerprint;
+
+		boolean fingerprinted = false;
+
+		Device(String usn) {
+			this.usn = usn;
+		}
+
+		/**
+		 * Must be called while the map holds the lock of this device's key.
+		 */
+		void schedule() {
+			if (timeout != null)
+				timeout.cancel();
+			checkAt = expiresAt;
+			timeout = wheel.schedule(this, expiresAt - System.currentTimeMillis());
+		}
+
+		@Override
+		public void run() {
+			boolean[] expired = new boolean[1];
+			devices.computeIfPresent(usn, (k, d) -> {
+				if (d != this)
+					return d;
+				if (expiresAt <= System.currentTimeMillis()) {
+					expired[0] = true;
+					return null;
+				}
+				schedule();
+				return d;
+			});
+			if (expired[0])
+				fire(l -> l.expired(message));
+		}
+	}
+}
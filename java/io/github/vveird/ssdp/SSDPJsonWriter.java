@@ -0,0 +1,408 @@
+package io.github.vveird.ssdp;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import io.github.vveird.ssdp.SSDPStatic.SSDPType;
+
+/**
+ * Streams {@link SSDPMessage}s as JSON to an {@link OutputStream} or
+ * {@link Writer}. Values of received messages are escaped straight from the
+ * packet bytes without creating strings. The output is plain ASCII, other
+ * characters are written as <code>&#92;u</code> escapes, so it is valid UTF-8 as
+ * well.
+ * <p>
+ * A message is written as
+ *
+ * <pre>
+ * {"type":"NOTIFY","from":"192.168.1.20:1900","receiveTime":1700000000000,"maxAge":1800,
+ *  "location":"http://192.168.1.20/desc.xml","server":"...","st":"upnp:rootdevice",
+ *  "usn":"uuid:...::upnp:rootdevice","nts":"ssdp:alive","headers":{"CACHE-CONTROL":"max-age=1800"}}
+ * </pre>
+ *
+ * M-SEARCH responses also carry <code>responseCode</code> and
+ * <code>responseDescriptor</code>. The headers are those without an own
+ * field, by upper case name. Messages written outside of an array are
+ * separated by line breaks, one object per line.
+ * <p>
+ * Output is buffered until {@link #flush()} or {@link #close()}. Instances
+ * are not thread safe.
+ */
+public class SSDPJsonWriter implements Closeable, Flushable {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+	private final OutputStream out;
+
+	private final Writer writer;
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	/**
+	 * Characters handed to the writer, <code>null</code> for a stream
+	 */
+	private final char[] chars;
+
+	private int position = 0;
+
+	private boolean inArray = false;
+
+	/**
+	 * <code>true</code> until the first element of the current array or line
+	 * sequence was written
+	 */
+	private boolean first = true;
+
+	public SSDPJsonWriter(OutputStream out) {
+		this.out = out;
+		this.writer = null;
+		this.chars = null;
+	}
+
+	public SSDPJsonWriter(Writer writer) {
+		this.out = null;
+		this.writer = writer;
+		this.chars = new char[BUFFER_SIZE];
+	}
+
+	/**
+	 * @return The message as JSON object
+	 */
+	public static String toJson(SSDPMessage msg) {
+		StringWriter sw = new StringWriter(512);
+		SSDPJsonWriter json = new SSDPJsonWriter(sw);
+		try {
+			json.writeMessage(msg);
+			json.flush();
+		} catch (IOException e) {
+			// StringWriter does not throw
+			throw new UncheckedIOException(e);
+		}
+		return sw.toString();
+	}
+
+	/**
+	 * Writes the message as next element of the array, or on a line of its
+	 * own outside of an array.
+	 */
+	public SSDPJsonWriter write(SSDPMessage msg) throws IOException {
+		if (inArray) {
+			if (!first)
+				put(',');
+			writeMessage(msg);
+		}
+		else {
+			writeMessage(msg);
+			put('\n');
+		}
+		first = false;
+		return this;
+	}
+
+	/**
+	 * Writes the messages as JSON array.
+	 */
+	public SSDPJsonWriter writeAll(Iterable<SSDPMessage> messages) throws IOException {
+		beginArray();
+		for (SSDPMessage msg : messages) {
+			write(msg);
+		}
+		return endArray();
+	}
+
+	/**
+	 * Starts an array, the following messages are written as its elements.
+	 */
+	public SSDPJsonWriter beginArray() throws IOException {
+		if (inArray)
+			throw new IllegalStateException("Arrays cannot be nested");
+		put('[');
+		inArray = true;
+		first = true;
+		return this;
+	}
+
+	public SSDPJsonWriter endArray() throws IOException {
+		if (!inArray)
+			throw new IllegalStateException("No array started");
+		put(']');
+		put('\n');
+		inArray = false;
+		first = true;
+		return this;
+	}
+
+	private void writeMessage(SSDPMessage msg) throws IOException {
+		byte[] raw = msg.raw();
+		put('{');
+		name("type", true);
+		string(msg.getSSDPType() != null ? msg.getSSDPType().getType() : null);
+		name("from", false);
+		address(msg.getIpAddress());
+		name("receiveTime", false);
+		number(msg.getReceiveTime());
+		name("maxAge", false);
+		number(msg.getMaxAge());
+		if (msg.getSSDPType() == SSDPType.SSDP_RESPONSE) {
+			name("responseCode", false);
+			number(msg.getResponseCode());
+			name("responseDescriptor", false);
+			if (raw != null && msg.statusField() != SSDPParser.ABSENT)
+				value(raw, msg.statusField());
+			else
+				string(msg.getResponseDescriptor());
+		}
+		if (raw != null) {
+			name("location", false);
+			special(msg, SSDPParser.SPECIAL_LOCATION, "");
+			name("server", false);
+			special(msg, SSDPParser.SPECIAL_SERVER, null);
+			name("st", false);
+			special(msg, msg.specialField(SSDPParser.SPECIAL_ST) != SSDPParser.ABSENT ? SSDPParser.SPECIAL_ST : SSDPParser.SPECIAL_NT, null);
+			name("usn", false);
+			special(msg, SSDPParser.SPECIAL_USN, null);
+			name("nts", false);
+			special(msg, SSDPParser.SPECIAL_NTS, null);
+			name("headers", false);
+			rawHeaders(msg, raw);
+		}
+		else {
+			name("location", false);
+			string(msg.getLocation());
+			name("server", false);
+			string(msg.getServer());
+			name("st", false);
+			string(msg.getServiceType());
+			name("usn", false);
+			string(msg.getUSN());
+			name("nts", false);
+			string(msg.getNTS());
+			name("headers", false);
+			headers(msg);
+		}
+		put('}');
+	}
+
+	private void special(SSDPMessage msg, int index, String absent) throws IOException {
+		int field = msg.specialField(index);
+		if (field != SSDPParser.ABSENT)
+			value(msg.raw(), field);
+		else
+			string(absent);
+	}
+
+	/**
+	 * Writes the headers without an own field, of repeated headers only the
+	 * last one as returned by {@link SSDPMessage#getHeader(String)}.
+	 */
+	private void rawHeaders(SSDPMessage msg, byte[] raw) throws IOException {
+		put('{');
+		boolean firstHeader = true;
+		int count = msg.headerCount();
+		for (int i = 0; i < count; i++) {
+			int name = msg.nameField(i);
+			int start = SSDPParser.start(name);
+			int end = SSDPParser.end(name);
+			if (SSDPParser.specialHeader(raw, start, end) >= 0 || msg.isRepeated(i))
+				continue;
+			if (!firstHeader)
+				put(',');
+			firstHeader = false;
+			put('"');
+			for (int j = start; j < end; j++) {
+				escape(SSDPParser.toUpper(raw[j]));
+			}
+			put('"');
+			put(':');
+			value(raw, msg.valueField(i));
+		}
+		put('}');
+	}
+
+	private void headers(SSDPMessage msg) throws IOException {
+		put('{');
+		boolean firstHeader = true;
+		for (String header : msg.getHeaders()) {
+			if (SSDPParser.HTTP_RESPONSE_STATUS_CODE.equals(header) || SSDPParser.HTTP_RESPONSE_STATUS_DESC.equals(header))
+				continue;
+			if (!firstHeader)
+				put(',');
+			firstHeader = false;
+			string(header);
+			put(':');
+			string(msg.getHeader(header));
+		}
+		put('}');
+	}
+
+	private void name(String name, boolean first) throws IOException {
+		if (!first)
+			put(',');
+		put('"');
+		for (int i = 0; i < name.length(); i++) {
+			put(name.charAt(i));
+		}
+		put('"');
+		put(':');
+	}
+
+	/**
+	 * Writes a value of the header block, values with other than ASCII
+	 * characters are decoded first.
+	 */
+	private void value(byte[] raw, int packed) throws IOException {
+		int start = SSDPParser.start(packed);
+		int end = SSDPParser.end(packed);
+		for (int i = start; i < end; i++) {
+			if (raw[i] < 0) {
+				string(new String(raw, start, end - start, StandardCharsets.UTF_8));
+				return;
+			}
+		}
+		put('"');
+		for (int i = start; i < end; i++) {
+			escape(raw[i]);
+		}
+		put('"');
+	}
+
+	private void string(String s) throws IOException {
+		if (s == null) {
+			put('n');
+			put('u');
+			put('l');
+			put('l');
+			return;
+		}
+		put('"');
+		for (int i = 0; i < s.length(); i++) {
+			escape(s.charAt(i));
+		}
+		put('"');
+	}
+
+	private void escape(int c) throws IOException {
+		if (c >= 0x20 && c < 0x7F && c != '"' && c != '\\') {
+			put(c);
+			return;
+		}
+		put('\\');
+		switch (c) {
+		case '"':
+		case '\\':
+			put(c);
+			break;
+		case '\n':
+			put('n');
+			break;
+		case '\r':
+			put('r');
+			break;
+		case '\t':
+			put('t');
+			break;
+		default:
+			put('u');
+			put(HEX[(c >> 12) & 0xF]);
+			put(HEX[(c >> 8) & 0xF]);
+			put(HEX[(c >> 4) & 0xF]);
+			put(HEX[c & 0xF]);
+			break;
+		}
+	}
+
+	private void address(SocketAddress address) throws IOException {
+		if (!(address instanceof InetSocketAddress)) {
+			string(address != null ? address.toString() : null);
+			return;
+		}
+		InetSocketAddress a = (InetSocketAddress) address;
+		if (!(a.getAddress() instanceof Inet4Address)) {
+			String host = a.getAddress() != null ? a.getAddress().getHostAddress() : a.getHostString();
+			string(host.indexOf(':') >= 0 ? "[" + host + "]:" + a.getPort() : host + ":" + a.getPort());
+			return;
+		}
+		put('"');
+		byte[] ip = a.getAddress().getAddress();
+		for (int i = 0; i < ip.length; i++) {
+			if (i > 0)
+				put('.');
+			number(ip[i] & 0xFF);
+		}
+		put(':');
+		number(a.getPort());
+		put('"');
+	}
+
+	private void number(long value) throws IOException {
+		if (value < 0) {
+			if (value == Long.MIN_VALUE) {
+				string(Long.toString(value));
+				return;
+			}
+			put('-');
+			value = -value;
+		}
+		if (position + 20 > BUFFER_SIZE)
+			flushBuffer();
+		int digits = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+		for (int i = position + digits - 1; i >= position; i--) {
+			buffer[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		position += digits;
+	}
+
+	private void put(int c) throws IOException {
+		if (position == BUFFER_SIZE)
+			flushBuffer();
+		buffer[position++] = (byte) c;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (position == 0)
+			return;
+		if (out != null) {
+			out.write(buffer, 0, position);
+		}
+		else {
+			for (int i = 0; i < position; i++) {
+				chars[i] = (char) buffer[i];
+			}
+			writer.write(chars, 0, position);
+		}
+		position = 0;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		if (out != null)
+			out.flush();
+		else
+			writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flushBuffer();
+		if (out != null)
+			out.close();
+		else
+			writer.close();
+	}
+}
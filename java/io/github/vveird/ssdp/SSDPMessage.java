@@ -2,14 +2,14 @@ package io.github.vveird.ssdp;
 
 import java.net.DatagramPacket;
 import java.net.SocketAddress;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Objects;
 
 import io.github.vveird.ssdp.SSDPStatic.SSDPType;
 
@@ -47,24 +47,56 @@ public class SSDPMessage {
 	
 
 	
-	private static long receiveTime;
+	/* max-age before it was read from the CACHE-CONTROL header */
+	private static final int MAX_AGE_UNPARSED = Integer.MIN_VALUE;
+	
+	private final long receiveTime;
+	
+	/* max-age of the CACHE-CONTROL header in seconds, -1 if not present */
+	private int maxAge = MAX_AGE_UNPARSED;
 	
 	private final SSDPClient source;
 	
     private final SSDPType ssdpType;
     private final int ssdpResponseCode;
-    private final String ssdpResponseDescriptor;
     private final SocketAddress ip;
-    private final String descriptionUrl;
-    private final String server;
-    private final String serviceType;
-    private final String usn;
-    private final String nts;
-    private final Map<String, String> headers;
+    
+    /*
+     * Header block of a received packet, null if the message was created from
+     * decoded values. Values are decoded on first access.
+     */
+    private final byte[] raw;
+    /*
+     * Packed start and end offsets in raw of the name and value of every
+     * header, followed by the header indexes of the special headers
+     */
+    private final int[] fields;
+    /* Packed offsets of the status description, SSDPParser.ABSENT if there is none */
+    private final int status;
+    
+    private String ssdpResponseDescriptor;
+    private String descriptionUrl;
+    private String server;
+    private String serviceType;
+    private String usn;
+    private String nts;
+    private Map<String, String> headers;
+    private List<String> headerNames;
 
 	public SSDPMessage(SSDPType ssdpType, SocketAddress ip, String descriptionUrl, String server, String serviceType,
 			String usn, String nts, Map<String, String> headers, SSDPClient source, int ssdpResponseCode,
 			String ssdpResponseDescriptor) {
+		this(ssdpType, ip, descriptionUrl, server, serviceType, usn, nts, headers, source, ssdpResponseCode,
+				ssdpResponseDescriptor, System.currentTimeMillis());
+	}
+	
+    /**
+     * Message restored with the time it was originally received, e.g. from a
+     * snapshot.
+     */
+	SSDPMessage(SSDPType ssdpType, SocketAddress ip, String descriptionUrl, String server, String serviceType,
+			String usn, String nts, Map<String, String> headers, SSDPClient source, int ssdpResponseCode,
+			String ssdpResponseDescriptor, long receiveTime) {
     	this.ssdpType = ssdpType;
     	this.ssdpResponseCode = ssdpResponseCode;
     	this.ssdpResponseDescriptor = ssdpResponseDescriptor;
@@ -76,6 +108,25 @@ public class SSDPMessage {
         this.nts = nts;
         this.headers = headers != null ? headers : new HashMap<>();
         this.source = source;
+        this.receiveTime = receiveTime;
+        this.raw = null;
+        this.fields = null;
+        this.status = SSDPParser.ABSENT;
+    }
+    
+    /**
+     * Message backed by the header block of a received packet, created by
+     * {@link SSDPParser}.
+     */
+	SSDPMessage(SSDPType ssdpType, SocketAddress ip, byte[] raw, int[] fields, SSDPClient source, int ssdpResponseCode,
+			int status) {
+    	this.ssdpType = ssdpType;
+    	this.ssdpResponseCode = ssdpResponseCode;
+        this.ip = ip;
+        this.raw = raw;
+        this.fields = fields;
+        this.status = status;
+        this.source = source;
         this.receiveTime = System.currentTimeMillis();
     }
 
@@ -85,61 +136,21 @@ public class SSDPMessage {
      * @return SSDPMessage
      */
     public static SSDPMessage parse(DatagramPacket ssdpResult, SSDPClient source) {
-        HashMap<String, String> headers = new HashMap<String, String>();
-    	SSDPType ssdpType = null;
-        Pattern pattern = Pattern.compile("(.*): (.*)");
-        Pattern httpResponsePattern = Pattern.compile("^(HTTP|http)/(?<httpversion>(1|2)\\.\\d) (?<httpresponsecode>\\d{3}) (?<httpresponsedescriptor>.*)");
-        Pattern ssdpPattern = Pattern.compile("(?<ssdptype>.*) \\* HTTP/(?<httpversion>.*)");
+        return SSDPParser.parse(ssdpResult.getData(), ssdpResult.getOffset(), ssdpResult.getLength(),
+                ssdpResult.getSocketAddress(), source);
+    }
 
-        String[] lines = new String(ssdpResult.getData()).replace("\r", "").split("\n");
-        for (String line : lines) {
-        	Matcher ssdpHeader = ssdpPattern.matcher(line);
-        	Matcher httpResponseHeader = httpResponsePattern.matcher(line);
-        	if(ssdpHeader.matches()) {
-        		ssdpType = SSDPType.getEnum(ssdpHeader.group("ssdptype"));
-        	}
-        	else if(httpResponseHeader.matches()) {
-        		ssdpType = SSDPType.SSDP_RESPONSE;
-        		headers.put("HTTP-RESPONSE-STATUS-CODE", httpResponseHeader.group("httpresponsecode"));
-        		headers.put("HTTP-RESPONSE-STATUS-DESC", httpResponseHeader.group("httpresponsedescriptor"));
-        	}
-            Matcher matcher = pattern.matcher(line);
-            if(matcher.matches()) {
-                headers.put(matcher.group(1).toUpperCase(), matcher.group(2));
-            }
-        }
-        String location = headers.get("LOCATION");
-        location = location != null ? location : "";
-        String server = headers.get("SERVER");
-        String st = headers.get("ST") != null ? headers.get("ST") : headers.get("NT");
-        String usn = headers.get("USN");
-        String nts = headers.get("NTS");
-        int ssdpResponseCode = 999;
-        try {
-    		ssdpResponseCode = headers.get("HTTP-RESPONSE-STATUS-CODE") != null ? Integer.valueOf(headers.get("HTTP-RESPONSE-STATUS-CODE")) : 999;
-		} catch (NumberFormatException e) {
-			e.printStackTrace();
-		}
-		String ssdpResponseDescriptor = headers.get("HTTP-RESPONSE-STATUS-DESC");
-		ssdpResponseDescriptor = ssdpResponseDescriptor == null ? "" : ssdpResponseDescriptor;
-        headers.remove("LOCATION");
-        headers.remove("SERVER");
-        headers.remove("ST");
-        headers.remove("NT");
-        headers.remove("USN");
-        headers.remove("NTS");
-        return new SSDPMessage(
-        		ssdpType,
-                ssdpResult.getSocketAddress(),
-                location,
-                server,
-                st,
-                usn,
-                nts,
-                headers,
-                source,
-                ssdpResponseCode,
-                ssdpResponseDescriptor);
+    /**
+     * Instantiate a new SSDPMessage Object from the raw bytes of a SSDP packet.
+     * @param data Packet buffer
+     * @param offset Offset of the packet in the buffer
+     * @param length Length of the packet
+     * @param from Sender of the packet
+     * @param source Client that received the packet
+     * @return SSDPMessage
+     */
+    public static SSDPMessage parse(byte[] data, int offset, int length, SocketAddress from, SSDPClient source) {
+        return SSDPParser.parse(data, offset, length, from, source);
     }
     
     public boolean isMSearch() {
@@ -171,31 +182,195 @@ public class SSDPMessage {
     }
 
     public String getLocation() {
+    	if (descriptionUrl == null && raw != null)
+    		descriptionUrl = special(SSDPParser.SPECIAL_LOCATION, "");
         return descriptionUrl;
     }
 
     public String getServer() {
+    	if (server == null && raw != null)
+    		server = special(SSDPParser.SPECIAL_SERVER, null);
         return server;
     }
 
+    /**
+     * @return ST of a M-SEARCH or response, NT of a NOTIFY
+     */
     public String getServiceType() {
+    	if (serviceType == null && raw != null)
+    		serviceType = special(SSDPParser.SPECIAL_ST, special(SSDPParser.SPECIAL_NT, null));
         return serviceType;
     }
 
     public String getUSN() {
+    	if (usn == null && raw != null)
+    		usn = special(SSDPParser.SPECIAL_USN, null);
         return usn;
     }
     
     public String getNTS() {
+    	if (nts == null && raw != null)
+    		nts = special(SSDPParser.SPECIAL_NTS, null);
         return nts;
     }
     
+    public int getResponseCode() {
+		return ssdpResponseCode;
+	}
+    
+    public String getResponseDescriptor() {
+    	if (ssdpResponseDescriptor == null)
+    		ssdpResponseDescriptor = status != SSDPParser.ABSENT ? decode(status) : "";
+		return ssdpResponseDescriptor;
+	}
+    
+    /**
+     * Looks up a header, the name is not case sensitive for received messages.
+     * @return Value of the last header with the name, <code>null</code> if not present
+     */
     public String getHeader(String header) {
-    	return this.headers.get(header);
+    	if (raw == null)
+    		return this.headers.get(header);
+    	if (ssdpType == SSDPType.SSDP_RESPONSE) {
+    		if (SSDPParser.HTTP_RESPONSE_STATUS_CODE.equalsIgnoreCase(header))
+    			return Integer.toString(ssdpResponseCode);
+    		if (SSDPParser.HTTP_RESPONSE_STATUS_DESC.equalsIgnoreCase(header))
+    			return getResponseDescriptor();
+    	}
+    	for (int i = headerCount() - 1; i >= 0; i--) {
+    		int name = fields[i * 2];
+    		if (SSDPParser.equalsIgnoreCase(raw, SSDPParser.start(name), SSDPParser.end(name), header))
+    			return decode(fields[i * 2 + 1]);
+    	}
+    	return null;
     }
     
+    /**
+     * @return Upper case names of the headers without an own getter, the
+     *         list cannot be modified
+     */
     public List<String> getHeaders()  {
-    	return new LinkedList<>(this.headers.keySet());
+    	if (headerNames == null) {
+    		if (raw == null) {
+    			headerNames = Collections.unmodifiableList(new ArrayList<>(this.headers.keySet()));
+    		}
+    		else {
+    			List<String> names = new ArrayList<>(headerCount() + 2);
+    			if (ssdpType == SSDPType.SSDP_RESPONSE) {
+    				names.add(SSDPParser.HTTP_RESPONSE_STATUS_CODE);
+    				names.add(SSDPParser.HTTP_RESPONSE_STATUS_DESC);
+    			}
+    			for (int i = 0; i < headerCount(); i++) {
+    				int name = fields[i * 2];
+    				String n = SSDPParser.headerName(raw, SSDPParser.start(name), SSDPParser.end(name));
+    				if (!isSpecial(n) && !names.contains(n))
+    					names.add(n);
+    			}
+    			headerNames = Collections.unmodifiableList(names);
+    		}
+    	}
+    	return headerNames;
+    }
+    
+    /**
+     * @return Headers without an own getter by upper case name
+     */
+    Map<String, String> headerMap() {
+    	if (headers == null) {
+    		Map<String, String> map = new LinkedHashMap<>();
+    		for (String name : getHeaders()) {
+				map.put(name, getHeader(name));
+			}
+    		headers = Collections.unmodifiableMap(map);
+    	}
+    	return headers;
+    }
+    
+    int headerCount() {
+    	return (fields.length - SSDPParser.SPECIAL_HEADERS.length) / 2;
+    }
+    
+    /**
+     * @return Header block of a received message, <code>null</code> if it was
+     *         created from decoded values
+     */
+    byte[] raw() {
+    	return raw;
+    }
+    
+    /**
+     * @return Packed offsets of the name of the header
+     */
+    int nameField(int header) {
+    	return fields[header * 2];
+    }
+    
+    /**
+     * @return Packed offsets of the value of the header
+     */
+    int valueField(int header) {
+    	return fields[header * 2 + 1];
+    }
+    
+    /**
+     * @return <code>true</code> if a later header of a received message has
+     *         the same name, the later value is the one {@link #getHeader}
+     *         returns
+     */
+    boolean isRepeated(int header) {
+    	int name = fields[header * 2];
+    	int start = SSDPParser.start(name);
+    	int length = SSDPParser.end(name) - start;
+    	for (int i = header + 1; i < headerCount(); i++) {
+    		int other = fields[i * 2];
+    		int otherStart = SSDPParser.start(other);
+    		if (SSDPParser.end(other) - otherStart != length)
+    			continue;
+    		int j = 0;
+    		while (j < length && SSDPParser.toUpper(raw[start + j]) == SSDPParser.toUpper(raw[otherStart + j]))
+    			j++;
+    		if (j == length)
+    			return true;
+    	}
+    	return false;
+    }
+    
+    /**
+     * @return Packed offsets of the value of a header with an own getter,
+     *         {@link SSDPParser#ABSENT} if not present
+     */
+    int specialField(int index) {
+    	int field = fields[headerCount() * 2 + index];
+    	return field >= 0 ? fields[field * 2 + 1] : SSDPParser.ABSENT;
+    }
+    
+    /**
+     * @return Packed offsets of the status description,
+     *         {@link SSDPParser#ABSENT} if there is none
+     */
+    int statusField() {
+    	return status;
+    }
+    
+    /**
+     * @return Value of a header with an own getter
+     */
+    private String special(int index, String absent) {
+    	int field = specialField(index);
+    	return field != SSDPParser.ABSENT ? decode(field) : absent;
+    }
+    
+    private String decode(int packed) {
+    	int start = SSDPParser.start(packed);
+    	return new String(raw, start, SSDPParser.end(packed) - start, StandardCharsets.UTF_8);
+    }
+    
+    private static boolean isSpecial(String upperCaseName) {
+    	for (String special : SSDPParser.SPECIAL_HEADERS) {
+			if (special.equals(upperCaseName))
+				return true;
+		}
+    	return false;
     }
 
     @Override
@@ -206,11 +381,10 @@ public class SSDPMessage {
         SSDPMessage device = (SSDPMessage) o;
 
         if (ip != null ? !ip.equals(device.ip) : device.ip != null) return false;
-        if (descriptionUrl != null ? !descriptionUrl.equals(device.descriptionUrl) : device.descriptionUrl != null)
-            return false;
-        if (server != null ? !server.equals(device.server) : device.server != null) return false;
-        if (serviceType != null ? !serviceType.equals(device.serviceType) : device.serviceType != null) return false;
-        return usn != null ? usn.equals(device.usn) : device.usn == null;
+        if (!Objects.equals(getLocation(), device.getLocation())) return false;
+        if (!Objects.equals(getServer(), device.getServer())) return false;
+        if (!Objects.equals(getServiceType(), device.getServiceType())) return false;
+        return Objects.equals(getUSN(), device.getUSN());
     }
     
     public SSDPClient getSource() {
@@ -218,59 +392,104 @@ public class SSDPMessage {
 	}
     
     public boolean isExpired() {
-    	Matcher mCacheConmtrol = RegexHelper.CACHE_CONTROL.matcher(getHeader("CACHE-CONTROL") != null ? getHeader("CACHE-CONTROL").trim() : "");
-  		if(mCacheConmtrol.matches()) {
-  			String option = mCacheConmtrol.group("option");
-  			String value = mCacheConmtrol.group("value");
-  			if(option != null && option.trim().equalsIgnoreCase("max-age") && value != null) {
-  				return System.currentTimeMillis() - (Integer.valueOf(value)*1200) > receiveTime;
-  			}
+    	return System.currentTimeMillis() > getExpiryTime();
+    }
+    
+    /**
+     * @return Time this message was received or created in milliseconds
+     */
+    public long getReceiveTime() {
+		return receiveTime;
+	}
+    
+    /**
+     * @return max-age of the CACHE-CONTROL header in seconds, -1 if not present
+     */
+    public int getMaxAge() {
+    	if (maxAge == MAX_AGE_UNPARSED)
+    		maxAge = parseMaxAge(getHeader("CACHE-CONTROL"));
+		return maxAge;
+	}
+    
+    /**
+     * @return Time in milliseconds after which this message is no longer valid,
+     *         {@link Long#MAX_VALUE} if it carries no max-age
+     */
+    public long getExpiryTime() {
+    	int maxAge = getMaxAge();
+    	return maxAge < 0 ? Long.MAX_VALUE : receiveTime + maxAge * 1_000L;
+    }
+    
+    /**
+     * Reads the max-age directive of a CACHE-CONTROL header value, e.g.
+     * <code>max-age=1800</code>.
+     * @return max-age in seconds, -1 if not present
+     */
+    static int parseMaxAge(String cacheControl) {
+    	if (cacheControl == null)
+    		return -1;
+    	int i = indexOfIgnoreCase(cacheControl, "max-age");
+    	if (i < 0)
+    		return -1;
+    	i += 7;
+    	int len = cacheControl.length();
+    	while (i < len && (cacheControl.charAt(i) == ' ' || cacheControl.charAt(i) == '='))
+    		i++;
+    	int value = -1;
+    	while (i < len && Character.isDigit(cacheControl.charAt(i)) && value < 100_000_000) {
+    		value = (value < 0 ? 0 : value * 10) + (cacheControl.charAt(i++) - '0');
     	}
-    	return false;
+    	return value;
+    }
+    
+    private static int indexOfIgnoreCase(String s, String lowerCase) {
+    	for (int i = 0; i + lowerCase.length() <= s.length(); i++) {
+    		if (s.regionMatches(true, i, lowerCase, 0, lowerCase.length()))
+    			return i;
+    	}
+    	return -1;
     }
     
     public SSDPMessage createByeBye() {
-    	return new SSDPMessage(SSDPType.NOTIFY, this.ip, this.descriptionUrl, this.server, this.serviceType, this.usn, SSDPStatic.NTS_BYEBYE, this.headers, this.source, 999, "");
+    	return new SSDPMessage(SSDPType.NOTIFY, this.ip, getLocation(), getServer(), getServiceType(), getUSN(), SSDPStatic.NTS_BYEBYE, headerMap(), this.source, 999, "");
     }
     
     public SSDPMessage createAlive() {
-    	return new SSDPMessage(SSDPType.NOTIFY, this.ip, this.descriptionUrl, this.server, this.serviceType, this.usn, SSDPStatic.NTS_ALIVE, this.headers, this.source, 999, "");
+    	return new SSDPMessage(SSDPType.NOTIFY, this.ip, getLocation(), getServer(), getServiceType(), getUSN(), SSDPStatic.NTS_ALIVE, headerMap(), this.source, 999, "");
     }
 
     @Override
     public int hashCode() {
         int result = ip != null ? ip.hashCode() : 0;
-        result = 31 * result + (descriptionUrl != null ? descriptionUrl.hashCode() : 0);
-        result = 31 * result + (server != null ? server.hashCode() : 0);
-        result = 31 * result + (serviceType != null ? serviceType.hashCode() : 0);
-        result = 31 * result + (usn != null ? usn.hashCode() : 0);
+        result = 31 * result + Objects.hashCode(getLocation());
+        result = 31 * result + Objects.hashCode(getServer());
+        result = 31 * result + Objects.hashCode(getServiceType());
+        result = 31 * result + Objects.hashCode(getUSN());
         return result;
     }
 
+    /**
+     * @return All fields and headers as JSON object, see {@link SSDPJsonWriter}
+     */
     public String toJson() {
-        return "SSDPMessage{\r\n" +
-                " type='" + this.ssdpType.getType() + "\',\r\n" + 
-                " ip='" + ip + "\',\r\n" +
-                " descriptionUrl='" + descriptionUrl + "\',\r\n" +
-                " server='" + server + "\',\r\n" +
-                " serviceType='" + serviceType + "\',\r\n" +
-                " usn='" + usn + "\'\r\n" +
-                "}";
+        return SSDPJsonWriter.toJson(this);
     }
     
     @Override
     public String toString() {
+    	String descriptionUrl = getLocation();
+    	String server = getServer();
     	StringBuilder sb = new StringBuilder();
-    	sb.append(this.getSSDPType().toString()).append((this.getSSDPType() == SSDPType.SSDP_RESPONSE ? " " + ssdpResponseCode + " " + ssdpResponseDescriptor : "")).append(SSDPStatic.NEWLINE)
+    	sb.append(this.getSSDPType().toString()).append((this.getSSDPType() == SSDPType.SSDP_RESPONSE ? " " + ssdpResponseCode + " " + getResponseDescriptor() : "")).append(SSDPStatic.NEWLINE)
     	.append("HOST: ").append(SSDPStatic.MULTICAST_ADDRESS).append(":").append(SSDPStatic.MULTICAST_PORT).append(SSDPStatic.NEWLINE)
     	.append(descriptionUrl != null && !descriptionUrl.trim().isEmpty() ?  "LOCATION: " + descriptionUrl + SSDPStatic.NEWLINE: "")
-    	.append("NTS: ").append(nts).append(SSDPStatic.NEWLINE)
+    	.append("NTS: ").append(getNTS()).append(SSDPStatic.NEWLINE)
     	.append(server != null && !server.trim().isEmpty() ?  "SERVER: " + server + SSDPStatic.NEWLINE: "")
-    	.append("USN: ").append(usn).append(SSDPStatic.NEWLINE)
-    	.append("ST: ").append(serviceType).append(SSDPStatic.NEWLINE);
-    	for (String header : headers.keySet()) {
-			sb.append(header).append(": ").append(headers.get(header)).append(SSDPStatic.NEWLINE);
+    	.append("USN: ").append(getUSN()).append(SSDPStatic.NEWLINE)
+    	.append("ST: ").append(getServiceType()).append(SSDPStatic.NEWLINE);
+    	for (Map.Entry<String, String> header : headerMap().entrySet()) {
+			sb.append(header.getKey()).append(": ").append(header.getValue()).append(SSDPStatic.NEWLINE);
 		}
     	return sb.toString();
     }
-}
\ No newline at end of file
+}
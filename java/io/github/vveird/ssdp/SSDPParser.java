@@ -0,0 +1,356 @@
+package io.github.vveird.ssdp;
+
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import io.github.vveird.ssdp.SSDPStatic.SSDPType;
+
+/**
+ * Single pass parser for SSDP datagrams. Works directly on the packet bytes
+ * (offset and length) without regular expressions or intermediate strings.
+ * Only the positions of the header names and values are recorded, the
+ * resulting {@link SSDPMessage} keeps a copy of the header block and decodes
+ * a header when it is accessed.
+ */
+public final class SSDPParser {
+
+	/**
+	 * Pseudo header holding the status code of a M-SEARCH response
+	 */
+	public static final String HTTP_RESPONSE_STATUS_CODE = "HTTP-RESPONSE-STATUS-CODE";
+
+	/**
+	 * Pseudo header holding the status description of a M-SEARCH response
+	 */
+	public static final String HTTP_RESPONSE_STATUS_DESC = "HTTP-RESPONSE-STATUS-DESC";
+
+	/**
+	 * Headers with their own accessor in {@link SSDPMessage}, in the order of
+	 * the SPECIAL_ constants
+	 */
+	static final String[] SPECIAL_HEADERS = { "LOCATION", "SERVER", "ST", "NT", "USN", "NTS" };
+
+	static final int SPECIAL_LOCATION = 0;
+
+	static final int SPECIAL_SERVER = 1;
+
+	static final int SPECIAL_ST = 2;
+
+	static final int SPECIAL_NT = 3;
+
+	static final int SPECIAL_USN = 4;
+
+	static final int SPECIAL_NTS = 5;
+
+	private static final byte[] NOTIFY = "NOTIFY".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] M_SEARCH = "M-SEARCH".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] STAR_HTTP = " * HTTP/".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * Largest packet whose offsets fit the packed representation without a
+	 * field packing to {@link #ABSENT}
+	 */
+	private static final int MAX_LENGTH = 0xFFFE;
+
+	/**
+	 * Packed offsets of a missing field. Packed fields of values starting at
+	 * 32768 or later are negative, so presence is tested against this and not
+	 * by sign.
+	 */
+	static final int ABSENT = -1;
+
+	private static final String[] KNOWN_HEADERS = { "HOST", "CACHE-CONTROL", "LOCATION", "SERVER", "NT", "NTS", "ST",
+			"USN", "MAN", "MX", "EXT", "DATE", "USER-AGENT", "OPT", "01-NLS", "AL", "CONTENT-LENGTH",
+			"BOOTID.UPNP.ORG", "CONFIGID.UPNP.ORG", "SEARCHPORT.UPNP.ORG", "NEXTBOOTID.UPNP.ORG" };
+
+	private SSDPParser() {
+	}
+
+	/**
+	 * Parses a SSDP datagram. The header block is copied, the buffer can be
+	 * reused once this method returns.
+	 * @param data Packet buffer
+	 * @param offset Offset of the first packet byte in <code>data</code>
+	 * @param length Number of packet bytes
+	 * @param from Sender of the packet
+	 * @param source Client that received the packet
+	 * @return SSDPMessage, the type is <code>null</code> if the start line is not recognised
+	 */
+	public static SSDPMessage parse(byte[] data, int offset, int length, SocketAddress from, SSDPClient source) {
+		// Start and end of the name and value of every header, relative to offset
+		int[] fields = new int[32];
+		int count = 0;
+		int[] special = { -1, -1, -1, -1, -1, -1 };
+		SSDPType ssdpType = null;
+		int ssdpResponseCode = 999;
+		int status = ABSENT;
+		boolean startLine = true;
+		int end = offset + Math.min(length, MAX_LENGTH);
+		int pos = offset;
+		while (pos < end) {
+			int lineEnd = indexOf(data, pos, end, (byte) '\n');
+			int next = lineEnd + 1;
+			if (lineEnd > pos && data[lineEnd - 1] == '\r')
+				lineEnd--;
+			if (lineEnd == pos) {
+				// Empty line terminates the header block, leading empty lines are skipped
+				if (!startLine) {
+					end = pos;
+					break;
+				}
+				pos = next;
+				continue;
+			}
+			if (startLine) {
+				startLine = false;
+				if (startsWith(data, pos, lineEnd, NOTIFY) && startsWith(data, pos + NOTIFY.length, lineEnd, STAR_HTTP)) {
+					ssdpType = SSDPType.NOTIFY;
+					pos = next;
+					continue;
+				}
+				if (startsWith(data, pos, lineEnd, M_SEARCH) && startsWith(data, pos + M_SEARCH.length, lineEnd, STAR_HTTP)) {
+					ssdpType = SSDPType.M_SEARCH;
+					pos = next;
+					continue;
+				}
+				int code = parseStatusCode(data, pos, lineEnd);
+				if (code >= 0) {
+					ssdpType = SSDPType.SSDP_RESPONSE;
+					ssdpResponseCode = code;
+					// "HTTP/x.y nnn " is 13 bytes long
+					int descStart = Math.min(pos + 13, lineEnd);
+					status = pack(descStart - offset, lineEnd - offset);
+					pos = next;
+					continue;
+				}
+			}
+			int colon = indexOf(data, pos, lineEnd, (byte) ':');
+			if (colon < lineEnd) {
+				int nameStart = skipWhitespace(data, pos, colon);
+				int nameEnd = trimWhitespace(data, nameStart, colon);
+				int valueStart = skipWhitespace(data, colon + 1, lineEnd);
+				int valueEnd = trimWhitespace(data, valueStart, lineEnd);
+				if (nameEnd > nameStart) {
+					if (count * 2 == fields.length)
+						fields = Arrays.copyOf(fields, fields.length * 2);
+					fields[count * 2] = pack(nameStart - offset, nameEnd - offset);
+					fields[count * 2 + 1] = pack(valueStart - offset, valueEnd - offset);
+					int index = specialHeader(data, nameStart, nameEnd);
+					// The last occurrence of a header wins
+					if (index >= 0)
+						special[index] = count;
+					count++;
+				}
+			}
+			pos = next;
+		}
+		// The indexes of the special headers follow the header offsets
+		int[] packed = Arrays.copyOf(fields, count * 2 + special.length);
+		System.arraycopy(special, 0, packed, count * 2, special.length);
+		return new SSDPMessage(ssdpType, from, Arrays.copyOfRange(data, offset, end), packed, source, ssdpResponseCode,
+				status);
+	}
+
+	/**
+	 * Reads only the start line of a SSDP datagram.
+	 * @return Type of the datagram, <code>null</code> if the start line is not
+	 *         recognised
+	 */
+	public static SSDPType parseType(byte[] data, int offset, int length) {
+		int end = offset + length;
+		int pos = offset;
+		while (pos < end) {
+			int lineEnd = indexOf(data, pos, end, (byte) '\n');
+			int next = lineEnd + 1;
+			if (lineEnd > pos && data[lineEnd - 1] == '\r')
+				lineEnd--;
+			if (lineEnd > pos) {
+				if (startsWith(data, pos, lineEnd, NOTIFY) && startsWith(data, pos + NOTIFY.length, lineEnd, STAR_HTTP))
+					return SSDPType.NOTIFY;
+				if (startsWith(data, pos, lineEnd, M_SEARCH) && startsWith(data, pos + M_SEARCH.length, lineEnd, STAR_HTTP))
+					return SSDPType.M_SEARCH;
+				return parseStatusCode(data, pos, lineEnd) >= 0 ? SSDPType.SSDP_RESPONSE : null;
+			}
+			pos = next;
+		}
+		return null;
+	}
+
+	/**
+	 * Locates the values of some headers without decoding them. The last
+	 * occurrence of a header wins, as in {@link #parse}.
+	 * @param names Header names, of any case
+	 * @param ranges Receives the position of each value in <code>data</code>
+	 *            as <code>start &lt;&lt; 32 | end</code>, -1 if the header is
+	 *            not present
+	 */
+	public static void findHeaders(byte[] data, int offset, int length, String[] names, long[] ranges) {
+		Arrays.fill(ranges, 0, names.length, -1L);
+		int end = offset + length;
+		int pos = offset;
+		boolean startLine = true;
+		while (pos < end) {
+			int lineEnd = indexOf(data, pos, end, (byte) '\n');
+			int next = lineEnd + 1;
+			if (lineEnd > pos && data[lineEnd - 1] == '\r')
+				lineEnd--;
+			if (lineEnd == pos) {
+				if (!startLine)
+					return;
+			}
+			else if (startLine) {
+				startLine = false;
+			}
+			else {
+				int colon = indexOf(data, pos, lineEnd, (byte) ':');
+				if (colon < lineEnd) {
+					int nameStart = skipWhitespace(data, pos, colon);
+					int nameEnd = trimWhitespace(data, nameStart, colon);
+					for (int i = 0; i < names.length; i++) {
+						if (equalsIgnoreCase(data, nameStart, nameEnd, names[i])) {
+							int valueStart = skipWhitespace(data, colon + 1, lineEnd);
+							ranges[i] = (long) valueStart << 32 | trimWhitespace(data, valueStart, lineEnd);
+							break;
+						}
+					}
+				}
+			}
+			pos = next;
+		}
+	}
+
+	/**
+	 * Packs a start and end offset into one int
+	 */
+	static int pack(int start, int end) {
+		return start << 16 | end;
+	}
+
+	static int start(int packed) {
+		return packed >>> 16;
+	}
+
+	static int end(int packed) {
+		return packed & 0xFFFF;
+	}
+
+	/**
+	 * @return Index of the header in {@link #SPECIAL_HEADERS}, -1 for others
+	 */
+	static int specialHeader(byte[] data, int start, int end) {
+		int len = end - start;
+		if (len < 2 || len > 8)
+			return -1;
+		for (int i = 0; i < SPECIAL_HEADERS.length; i++) {
+			if (SPECIAL_HEADERS[i].length() == len && equalsIgnoreCase(data, start, SPECIAL_HEADERS[i]))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Parses a status line of the form <code>HTTP/x.y nnn ...</code>.
+	 * @return Status code or -1 if the line is no HTTP status line
+	 */
+	private static int parseStatusCode(byte[] data, int start, int end) {
+		if (end - start < 12)
+			return -1;
+		if ((data[start] | 0x20) != 'h' || (data[start + 1] | 0x20) != 't' || (data[start + 2] | 0x20) != 't'
+				|| (data[start + 3] | 0x20) != 'p' || data[start + 4] != '/')
+			return -1;
+		byte major = data[start + 5];
+		if ((major != '1' && major != '2') || data[start + 6] != '.' || !isDigit(data[start + 7])
+				|| data[start + 8] != ' ')
+			return -1;
+		int code = 0;
+		for (int i = start + 9; i < start + 12; i++) {
+			if (!isDigit(data[i]))
+				return -1;
+			code = code * 10 + (data[i] - '0');
+		}
+		if (end > start + 12 && data[start + 12] != ' ')
+			return -1;
+		return code;
+	}
+
+	/**
+	 * Returns the upper case header name, well known headers are resolved to
+	 * constants without allocating.
+	 */
+	static String headerName(byte[] data, int start, int end) {
+		int len = end - start;
+		for (String known : KNOWN_HEADERS) {
+			if (known.length() == len && equalsIgnoreCase(data, start, known))
+				return known;
+		}
+		char[] name = new char[len];
+		for (int i = 0; i < len; i++) {
+			name[i] = (char) toUpper(data[start + i]);
+		}
+		return new String(name);
+	}
+
+	/**
+	 * Compares the bytes with a name, the name may be of any case.
+	 */
+	static boolean equalsIgnoreCase(byte[] data, int start, int end, String name) {
+		if (end - start != name.length())
+			return false;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (toUpper(data[start + i]) != (c >= 'a' && c <= 'z' ? c - 32 : c))
+				return false;
+		}
+		return true;
+	}
+
+	static boolean equalsIgnoreCase(byte[] data, int start, String upperCase) {
+		for (int i = 0; i < upperCase.length(); i++) {
+			if (toUpper(data[start + i]) != upperCase.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	static int toUpper(byte b) {
+		int c = b & 0xFF;
+		return c >= 'a' && c <= 'z' ? c - 32 : c;
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	private static boolean startsWith(byte[] data, int start, int end, byte[] prefix) {
+		if (end - start < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++) {
+			if (data[start + i] != prefix[i])
+				return false;
+		}
+		return true;
+	}
+
+	static int indexOf(byte[] data, int start, int end, byte b) {
+		for (int i = start; i < end; i++) {
+			if (data[i] == b)
+				return i;
+		}
+		return end;
+	}
+
+	private static int skipWhitespace(byte[] data, int start, int end) {
+		while (start < end && (data[start] == ' ' || data[start] == '\t'))
+			start++;
+		return start;
+	}
+
+	private static int trimWhitespace(byte[] data, int start, int end) {
+		while (end > start && (data[end - 1] == ' ' || data[end - 1] == '\t'))
+			end--;
+		return end;
+	}
+}
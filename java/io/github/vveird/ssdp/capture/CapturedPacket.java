@@ -0,0 +1,74 @@
+package io.github.vveird.ssdp.capture;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Datagram received or sent on an interface, as recorded by a
+ * {@link PacketCapture} or read from a pcap file.
+ */
+public class CapturedPacket {
+
+	private final long timestampMicros;
+
+	private final boolean outbound;
+
+	private final boolean multicast;
+
+	private final InetSocketAddress local;
+
+	private final InetSocketAddress remote;
+
+	private final byte[] data;
+
+	/**
+	 * @param timestampMicros Capture time in microseconds since the epoch
+	 * @param outbound <code>true</code> if the packet was sent on the
+	 *            interface
+	 * @param multicast <code>true</code> if the packet was sent to or received
+	 *            on the SSDP port
+	 * @param local Address of the interface, port 0 if unknown
+	 * @param remote Sender of a received packet, destination of a sent one
+	 */
+	public CapturedPacket(long timestampMicros, boolean outbound, boolean multicast, InetSocketAddress local,
+			InetSocketAddress remote, byte[] data) {
+		this.timestampMicros = timestampMicros;
+		this.outbound = outbound;
+		this.multicast = multicast;
+		this.local = local;
+		this.remote = remote;
+		this.data = data;
+	}
+
+	public long getTimestampMicros() {
+		return timestampMicros;
+	}
+
+	public boolean isOutbound() {
+		return outbound;
+	}
+
+	public boolean isMulticast() {
+		return multicast;
+	}
+
+	public InetSocketAddress getLocal() {
+		return local;
+	}
+
+	public InetSocketAddress getRemote() {
+		return remote;
+	}
+
+	/**
+	 * @return Payload of the datagram, not copied
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	@Override
+	public String toString() {
+		return "CapturedPacket[" + timestampMicros + (outbound ? " to " : " from ") + remote + " on " + local
+				+ (multicast ? " multicast" : "") + ", " + data.length + " bytes]";
+	}
+}
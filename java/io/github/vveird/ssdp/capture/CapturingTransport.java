@@ -0,0 +1,64 @@
+package io.github.vveird.ssdp.capture;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+import io.github.vveird.ssdp.SSDPStatic;
+import io.github.vveird.ssdp.transport.Transport;
+
+/**
+ * Transport recording all datagrams of another one in a
+ * {@link PacketCapture}.
+ */
+class CapturingTransport implements Transport {
+
+	private static final InetSocketAddress MULTICAST_GROUP = new InetSocketAddress(SSDPStatic.MULTICAST_ADDRESS,
+			SSDPStatic.MULTICAST_PORT);
+
+	private final Transport transport;
+
+	private final PacketCapture capture;
+
+	CapturingTransport(Transport transport, PacketCapture capture) {
+		this.transport = transport;
+		this.capture = capture;
+	}
+
+	@Override
+	public InetAddress getLocalAddress() {
+		return transport.getLocalAddress();
+	}
+
+	@Override
+	public void sendMulticast(byte[] data) throws IOException {
+		capture.record(true, true, transport.getLocalAddress(), 0, MULTICAST_GROUP, data, 0, data.length);
+		transport.sendMulticast(data);
+	}
+
+	@Override
+	public void send(byte[] data, SocketAddress destination) throws IOException {
+		capture.record(true, false, transport.getLocalAddress(), 0, destination, data, 0, data.length);
+		transport.send(data, destination);
+	}
+
+	@Override
+	public void start(Receiver receiver) throws IOException {
+		InetAddress local = transport.getLocalAddress();
+		transport.start((multicast, data, length, from) -> {
+			capture.record(false, multicast, local, multicast ? SSDPStatic.MULTICAST_PORT : 0, from, data, 0, length);
+			receiver.received(multicast, data, length, from);
+		});
+	}
+
+	@Override
+	public void close() {
+		transport.close();
+	}
+
+	@Override
+	public String toString() {
+		return "CapturingTransport[" + transport + "]";
+	}
+}
@@ -0,0 +1,253 @@
+package io.github.vveird.ssdp.capture;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.github.vveird.ssdp.transport.TransportFactory;
+
+/**
+ * Fixed size ring buffer of the raw datagrams received and sent on the
+ * interfaces of a server, kept off the heap in a direct buffer. When the
+ * buffer is full the oldest datagrams are overwritten. Capture transports
+ * with {@link #wrap(TransportFactory)}.
+ * <p>
+ * Each record holds the capture time, direction, interface, remote address
+ * and payload. Only IPv4 addresses are kept, others are recorded as
+ * <code>0.0.0.0</code>.
+ */
+public class PacketCapture {
+
+	/**
+	 * Record length, time in microseconds, flags, local address and port,
+	 * remote address and port
+	 */
+	private static final int HEADER = 4 + 8 + 1 + 4 + 2 + 4 + 2;
+
+	private static final int FLAG_OUTBOUND = 1;
+
+	private static final int FLAG_MULTICAST = 2;
+
+	private static final byte[] NO_ADDRESS = new byte[4];
+
+	private final ByteBuffer ring;
+
+	private final int capacity;
+
+	/**
+	 * Offset of the oldest record
+	 */
+	private int head = 0;
+
+	/**
+	 * Offset the next record is written to
+	 */
+	private int tail = 0;
+
+	/**
+	 * End of the records before the write position wrapped to the start,
+	 * only valid while <code>wrapped</code>
+	 */
+	private int wrapAt = 0;
+
+	private boolean wrapped = false;
+
+	private int count = 0;
+
+	private long recorded = 0;
+
+	private long overwritten = 0;
+
+	/**
+	 * Wall clock in microseconds at <code>baseNanos</code>, the capture time
+	 * is taken from the monotonic clock
+	 */
+	private final long baseMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+
+	private final long baseNanos = System.nanoTime();
+
+	/**
+	 * @param capacity Size of the buffer in bytes, each datagram takes its
+	 *            length plus 25 bytes
+	 */
+	public PacketCapture(int capacity) {
+		if (capacity < HEADER)
+			throw new IllegalArgumentException("Capture buffer must hold at least " + HEADER + " bytes");
+		this.capacity = capacity;
+		this.ring = ByteBuffer.allocateDirect(capacity);
+	}
+
+	/**
+	 * @return Factory opening the transports of the factory with every
+	 *         datagram recorded in this buffer
+	 */
+	public TransportFactory wrap(TransportFactory factory) {
+		return localAddress -> new CapturingTransport(factory.open(localAddress), this);
+	}
+
+	/**
+	 * Records a datagram. Datagrams larger than the buffer are not recorded.
+	 * @param local Address of the interface
+	 * @param localPort Port on the interface, 0 if unknown
+	 * @param remote Sender of a received datagram, destination of a sent one
+	 */
+	public void record(boolean outbound, boolean multicast, InetAddress local, int localPort, SocketAddress remote,
+			byte[] data, int offset, int length) {
+		int recordLength = HEADER + length;
+		if (recordLength > capacity)
+			return;
+		long micros = baseMicros + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - baseNanos);
+		InetSocketAddress r = remote instanceof InetSocketAddress ? (InetSocketAddress) remote : null;
+		byte[] localAddress = local instanceof Inet4Address ? local.getAddress() : NO_ADDRESS;
+		byte[] remoteAddress = r != null && r.getAddress() instanceof Inet4Address ? r.getAddress().getAddress() : NO_ADDRESS;
+		synchronized (this) {
+			makeRoom(recordLength);
+			ring.position(tail);
+			ring.putInt(recordLength);
+			ring.putLong(micros);
+			ring.put((byte) ((outbound ? FLAG_OUTBOUND : 0) | (multicast ? FLAG_MULTICAST : 0)));
+			ring.put(localAddress);
+			ring.putShort((short) localPort);
+			ring.put(remoteAddress);
+			ring.putShort((short) (r != null ? r.getPort() : 0));
+			ring.put(data, offset, length);
+			tail += recordLength;
+			count++;
+			recorded++;
+		}
+	}
+
+	/**
+	 * Evicts the oldest records until there is a contiguous free region of
+	 * the length at the write position.
+	 */
+	private void makeRoom(int length) {
+		while (true) {
+			if (count == 0) {
+				head = 0;
+				tail = 0;
+				wrapped = false;
+				return;
+			}
+			if (!wrapped) {
+				// Records in [head, tail)
+				if (capacity - tail >= length)
+					return;
+				wrapAt = tail;
+				tail = 0;
+				wrapped = true;
+			}
+			else {
+				// Records in [head, wrapAt) and [0, tail)
+				if (head - tail >= length)
+					return;
+				head += ring.getInt(head);
+				count--;
+				overwritten++;
+				if (head >= wrapAt) {
+					head = 0;
+					wrapped = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Copy of the recorded datagrams, oldest first
+	 */
+	public List<CapturedPacket> snapshot() {
+		List<CapturedPacket> packets;
+		synchronized (this) {
+			packets = new ArrayList<>(count);
+			if (wrapped) {
+				read(head, wrapAt, packets);
+				read(0, tail, packets);
+			}
+			else {
+				read(head, tail, packets);
+			}
+		}
+		return packets;
+	}
+
+	private void read(int from, int to, List<CapturedPacket> packets) {
+		byte[] local = new byte[4];
+		byte[] remote = new byte[4];
+		for (int offset = from; offset < to;) {
+			ring.position(offset);
+			int recordLength = ring.getInt();
+			long micros = ring.getLong();
+			int flags = ring.get();
+			ring.get(local);
+			int localPort = ring.getShort() & 0xFFFF;
+			ring.get(remote);
+			int remotePort = ring.getShort() & 0xFFFF;
+			byte[] data = new byte[recordLength - HEADER];
+			ring.get(data);
+			packets.add(new CapturedPacket(micros, (flags & FLAG_OUTBOUND) != 0, (flags & FLAG_MULTICAST) != 0,
+					address(local, localPort), address(remote, remotePort), data));
+			offset += recordLength;
+		}
+	}
+
+	private static InetSocketAddress address(byte[] ip, int port) {
+		try {
+			return new InetSocketAddress(InetAddress.getByAddress(ip), port);
+		} catch (UnknownHostException e) {
+			// Only thrown for addresses of illegal length
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes the recorded datagrams as pcap file, see {@link Pcap}.
+	 */
+	public void writePcap(OutputStream out) throws IOException {
+		Pcap.write(snapshot(), out);
+	}
+
+	public void writePcap(Path file) throws IOException {
+		Pcap.write(snapshot(), file);
+	}
+
+	public synchronized void clear() {
+		head = 0;
+		tail = 0;
+		wrapped = false;
+		count = 0;
+	}
+
+	/**
+	 * @return Number of datagrams in the buffer
+	 */
+	public synchronized int size() {
+		return count;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return Number of datagrams recorded since creation
+	 */
+	public synchronized long getRecorded() {
+		return recorded;
+	}
+
+	/**
+	 * @return Number of datagrams overwritten by newer ones
+	 */
+	public synchronized long getOverwritten() {
+		return overwritten;
+	}
+}
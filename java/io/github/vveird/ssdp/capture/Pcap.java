@@ -0,0 +1,234 @@
+package io.github.vveird.ssdp.capture;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.github.vveird.ssdp.SSDPStatic;
+
+/**
+ * Reads and writes captured datagrams as libpcap files, readable by
+ * Wireshark and tcpdump. Files are written with link type
+ * <code>LINKTYPE_RAW</code>, each datagram behind synthesized IPv4 and UDP
+ * headers. Unknown local ports are written as 0. Received multicast
+ * datagrams are written to the SSDP port of the interface they arrived on
+ * rather than to the multicast group.
+ * <p>
+ * Reading accepts raw IP, Ethernet and Linux cooked captures in either byte
+ * order with micro or nanosecond timestamps. Only IPv4 UDP datagrams are
+ * read, all as received: the file does not tell which packets a host sent
+ * itself. Datagrams to a multicast address or the SSDP port count as
+ * multicast.
+ */
+public final class Pcap {
+
+	private static final int MAGIC_MICROS = 0xA1B2C3D4;
+
+	private static final int MAGIC_NANOS = 0xA1B23C4D;
+
+	private static final int LINKTYPE_ETHERNET = 1;
+
+	private static final int LINKTYPE_RAW = 101;
+
+	private static final int LINKTYPE_LINUX_SLL = 113;
+
+	private static final int SNAPLEN = 65_535;
+
+	private static final int IP_HEADER = 20;
+
+	private static final int UDP_HEADER = 8;
+
+	/**
+	 * TTL of the synthesized IP headers, UPnP recommends 2 for multicast
+	 */
+	private static final int MULTICAST_TTL = 2;
+
+	private static final int UNICAST_TTL = 64;
+
+	private Pcap() {
+	}
+
+	public static void write(List<CapturedPacket> packets, Path file) throws IOException {
+		try (OutputStream out = Files.newOutputStream(file)) {
+			write(packets, out);
+		}
+	}
+
+	/**
+	 * Writes the packets to the stream, which is flushed but not closed.
+	 */
+	public static void write(List<CapturedPacket> packets, OutputStream stream) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 65_536));
+		out.writeInt(MAGIC_MICROS);
+		out.writeShort(2);
+		out.writeShort(4);
+		// Time zone and accuracy of the timestamps
+		out.writeInt(0);
+		out.writeInt(0);
+		out.writeInt(SNAPLEN);
+		out.writeInt(LINKTYPE_RAW);
+		byte[] ip = new byte[IP_HEADER + UDP_HEADER];
+		short id = 0;
+		for (CapturedPacket p : packets) {
+			int length = IP_HEADER + UDP_HEADER + p.getData().length;
+			if (length > SNAPLEN)
+				continue;
+			InetSocketAddress source = p.isOutbound() ? p.getLocal() : p.getRemote();
+			InetSocketAddress destination = p.isOutbound() ? p.getRemote() : p.getLocal();
+			// The interface instead of the group, so a replay knows where it arrived
+			if (!p.isOutbound() && p.isMulticast())
+				destination = new InetSocketAddress(p.getLocal().getAddress(), SSDPStatic.MULTICAST_PORT);
+			ipHeader(ip, length, id++, p.isMulticast() ? MULTICAST_TTL : UNICAST_TTL, source, destination);
+			out.writeInt((int) (p.getTimestampMicros() / 1_000_000));
+			out.writeInt((int) (p.getTimestampMicros() % 1_000_000));
+			out.writeInt(length);
+			out.writeInt(length);
+			out.write(ip);
+			out.write(p.getData());
+		}
+		out.flush();
+	}
+
+	private static void ipHeader(byte[] h, int length, short id, int ttl, InetSocketAddress source,
+			InetSocketAddress destination) {
+		ByteBuffer b = ByteBuffer.wrap(h);
+		b.put((byte) 0x45);
+		b.put((byte) 0);
+		b.putShort((short) length);
+		b.putShort(id);
+		// Don't fragment
+		b.putShort((short) 0x4000);
+		b.put((byte) ttl);
+		b.put((byte) 17);
+		b.putShort((short) 0);
+		b.put(ipv4(source));
+		b.put(ipv4(destination));
+		int sum = 0;
+		for (int i = 0; i < IP_HEADER; i += 2) {
+			sum += ((h[i] & 0xFF) << 8) | (h[i + 1] & 0xFF);
+		}
+		while ((sum >> 16) != 0) {
+			sum = (sum & 0xFFFF) + (sum >> 16);
+		}
+		b.putShort(10, (short) ~sum);
+		b.putShort((short) source.getPort());
+		b.putShort((short) destination.getPort());
+		b.putShort((short) (length - IP_HEADER));
+		// No UDP checksum, allowed on IPv4
+		b.putShort((short) 0);
+	}
+
+	private static byte[] ipv4(InetSocketAddress address) {
+		if (address.getAddress() != null && address.getAddress().getAddress().length == 4)
+			return address.getAddress().getAddress();
+		return new byte[4];
+	}
+
+	public static List<CapturedPacket> read(Path file) throws IOException {
+		try (InputStream in = Files.newInputStream(file)) {
+			return read(in);
+		}
+	}
+
+	/**
+	 * Reads the IPv4 UDP datagrams of a pcap file, other packets are skipped.
+	 * @throws IOException if the stream is no pcap file of a supported link
+	 *             type
+	 */
+	public static List<CapturedPacket> read(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 65_536));
+		byte[] header = new byte[24];
+		in.readFully(header);
+		ByteBuffer h = ByteBuffer.wrap(header);
+		int magic = h.getInt(0);
+		if (magic == Integer.reverseBytes(MAGIC_MICROS) || magic == Integer.reverseBytes(MAGIC_NANOS)) {
+			h.order(ByteOrder.LITTLE_ENDIAN);
+			magic = Integer.reverseBytes(magic);
+		}
+		if (magic != MAGIC_MICROS && magic != MAGIC_NANOS)
+			throw new IOException("Not a pcap file, magic " + Integer.toHexString(magic));
+		boolean nanos = magic == MAGIC_NANOS;
+		int linkType = h.getInt(20) & 0xFFFF;
+		if (linkType != LINKTYPE_RAW && linkType != LINKTYPE_ETHERNET && linkType != LINKTYPE_LINUX_SLL)
+			throw new IOException("Unsupported pcap link type " + linkType);
+		List<CapturedPacket> packets = new ArrayList<>();
+		byte[] recordHeader = new byte[16];
+		ByteBuffer r = ByteBuffer.wrap(recordHeader).order(h.order());
+		while (true) {
+			try {
+				in.readFully(recordHeader);
+			} catch (EOFException e) {
+				break;
+			}
+			long seconds = r.getInt(0) & 0xFFFFFFFFL;
+			long fraction = r.getInt(4) & 0xFFFFFFFFL;
+			int captured = r.getInt(8);
+			if (captured < 0 || captured > 262_144)
+				throw new IOException("Damaged pcap record of " + captured + " bytes");
+			byte[] frame = new byte[captured];
+			in.readFully(frame);
+			CapturedPacket p = packet(frame, linkType, seconds * 1_000_000 + (nanos ? fraction / 1_000 : fraction));
+			if (p != null)
+				packets.add(p);
+		}
+		return packets;
+	}
+
+	/**
+	 * @return Datagram of the frame, <code>null</code> for anything but
+	 *         complete IPv4 UDP packets
+	 */
+	private static CapturedPacket packet(byte[] frame, int linkType, long micros) throws IOException {
+		ByteBuffer b = ByteBuffer.wrap(frame);
+		int offset = 0;
+		if (linkType == LINKTYPE_ETHERNET) {
+			offset = 12;
+			// VLAN tags
+			while (offset + 2 <= frame.length && (b.getShort(offset) & 0xFFFF) == 0x8100) {
+				offset += 4;
+			}
+			if (offset + 2 > frame.length || (b.getShort(offset) & 0xFFFF) != 0x0800)
+				return null;
+			offset += 2;
+		}
+		else if (linkType == LINKTYPE_LINUX_SLL) {
+			if (frame.length < 16 || (b.getShort(14) & 0xFFFF) != 0x0800)
+				return null;
+			offset = 16;
+		}
+		if (frame.length < offset + IP_HEADER || (frame[offset] & 0xF0) != 0x40 || frame[offset + 9] != 17)
+			return null;
+		// Fragmented datagrams are not reassembled
+		if ((b.getShort(offset + 6) & 0x3FFF) != 0)
+			return null;
+		int ipHeader = (frame[offset] & 0x0F) * 4;
+		int udp = offset + ipHeader;
+		if (frame.length < udp + UDP_HEADER)
+			return null;
+		int payload = (b.getShort(udp + 4) & 0xFFFF) - UDP_HEADER;
+		if (payload < 0 || frame.length < udp + UDP_HEADER + payload)
+			return null;
+		InetAddress source = InetAddress.getByAddress(new byte[] { frame[offset + 12], frame[offset + 13], frame[offset + 14], frame[offset + 15] });
+		InetAddress destination = InetAddress.getByAddress(new byte[] { frame[offset + 16], frame[offset + 17], frame[offset + 18], frame[offset + 19] });
+		int sourcePort = b.getShort(udp) & 0xFFFF;
+		int destinationPort = b.getShort(udp + 2) & 0xFFFF;
+		byte[] data = new byte[payload];
+		System.arraycopy(frame, udp + UDP_HEADER, data, 0, payload);
+		boolean multicast = destination.isMulticastAddress() || destinationPort == SSDPStatic.MULTICAST_PORT;
+		return new CapturedPacket(micros, false, multicast, new InetSocketAddress(destination, destinationPort),
+				new InetSocketAddress(source, sourcePort), data);
+	}
+}
@@ -0,0 +1,228 @@
+package io.github.vveird.ssdp.capture;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.github.vveird.ssdp.transport.Transport;
+import io.github.vveird.ssdp.transport.TransportFactory;
+
+/**
+ * Feeds captured datagrams into servers as if they were received on the
+ * network. Use the replayer as transport factory of the servers, then
+ * {@link #start()} it:
+ *
+ * <pre>
+ * Replayer replay = Replayer.builder(Pcap.read(file)).speed(10).build();
+ * SSDPServer server = new SSDPServer(SSDPServerConfig.builder().transportFactory(replay)
+ * 		.localAddress(InetAddress.getByName("192.168.1.2")).build());
+ * replay.start().join();
+ * </pre>
+ *
+ * Datagrams go to the transport with their local address, or to the first
+ * transport if none matches. Datagrams the capturing host sent itself are
+ * skipped, those the servers send are counted and discarded.
+ */
+public class Replayer implements TransportFactory {
+
+	/**
+	 * Speed replaying without pauses
+	 */
+	public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+	private Logger logger = LogManager.getLogger(Replayer.class);
+
+	private final List<CapturedPacket> packets;
+
+	private final double speed;
+
+	private final List<ReplayTransport> transports = new CopyOnWriteArrayList<>();
+
+	private final LongAdder sent = new LongAdder();
+
+	private Replayer(ReplayBuilder builder) {
+		List<CapturedPacket> replayed = new ArrayList<>();
+		for (CapturedPacket p : builder.packets) {
+			if (!p.isOutbound() && !builder.excludedSources.contains(p.getRemote().getAddress()))
+				replayed.add(p);
+		}
+		this.packets = replayed;
+		this.speed = builder.speed;
+	}
+
+	public static ReplayBuilder builder(List<CapturedPacket> packets) {
+		return new ReplayBuilder(packets);
+	}
+
+	@Override
+	public Transport open(InetAddress localAddress) {
+		ReplayTransport t = new ReplayTransport(localAddress);
+		transports.add(t);
+		return t;
+	}
+
+	/**
+	 * Replays the datagrams on a daemon thread.
+	 * @return Number of datagrams delivered, once all were replayed
+	 */
+	public CompletableFuture<Long> start() {
+		CompletableFuture<Long> result = new CompletableFuture<>();
+		Thread t = new Thread(() -> {
+			try {
+				result.complete(replay());
+			} catch (RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+		});
+		t.setDaemon(true);
+		t.setName("SSDP Replay");
+		t.start();
+		return result;
+	}
+
+	private long replay() {
+		if (packets.isEmpty())
+			return 0;
+		long delivered = 0;
+		long firstMicros = packets.get(0).getTimestampMicros();
+		long start = System.nanoTime();
+		for (CapturedPacket p : packets) {
+			if (speed != AS_FAST_AS_POSSIBLE) {
+				long due = start + (long) (TimeUnit.MICROSECONDS.toNanos(p.getTimestampMicros() - firstMicros) / speed);
+				long wait;
+				while ((wait = due - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(wait);
+				}
+			}
+			ReplayTransport target = target(p);
+			if (target != null && target.deliver(p))
+				delivered++;
+		}
+		return delivered;
+	}
+
+	private ReplayTransport target(CapturedPacket p) {
+		for (ReplayTransport t : transports) {
+			if (t.localAddress.equals(p.getLocal().getAddress()))
+				return t;
+		}
+		return transports.isEmpty() ? null : transports.get(0);
+	}
+
+	/**
+	 * @return Number of datagrams to replay
+	 */
+	public int size() {
+		return packets.size();
+	}
+
+	/**
+	 * @return Number of datagrams the servers sent while replaying
+	 */
+	public long getSent() {
+		return sent.sum();
+	}
+
+	public static class ReplayBuilder {
+
+		private final List<CapturedPacket> packets;
+
+		private double speed = 1;
+
+		private Set<InetAddress> excludedSources = new HashSet<>();
+
+		private ReplayBuilder(List<CapturedPacket> packets) {
+			this.packets = packets;
+		}
+
+		/**
+		 * Factor the original timing is sped up by, 1 replays in real time,
+		 * {@link Replayer#AS_FAST_AS_POSSIBLE} without pauses
+		 */
+		public ReplayBuilder speed(double speed) {
+			if (!(speed > 0))
+				throw new IllegalArgumentException("Replay speed must be positive");
+			this.speed = speed;
+			return this;
+		}
+
+		/**
+		 * Skips the datagrams sent from the address, for example by the host a
+		 * pcap file was recorded on.
+		 */
+		public ReplayBuilder excludeSource(InetAddress source) {
+			this.excludedSources.add(source);
+			return this;
+		}
+
+		public Replayer build() {
+			return new Replayer(this);
+		}
+	}
+
+	private class ReplayTransport implements Transport {
+
+		final InetAddress localAddress;
+
+		volatile Receiver receiver = null;
+
+		ReplayTransport(InetAddress localAddress) {
+			this.localAddress = localAddress;
+		}
+
+		boolean deliver(CapturedPacket p) {
+			Receiver r = receiver;
+			if (r == null)
+				return false;
+			try {
+				r.received(p.isMulticast(), p.getData(), p.getData().length, p.getRemote());
+			} catch (RuntimeException e) {
+				logger.error("Error handling replayed datagram " + p, e);
+			}
+			return true;
+		}
+
+		@Override
+		public InetAddress getLocalAddress() {
+			return localAddress;
+		}
+
+		@Override
+		public void sendMulticast(byte[] data) {
+			sent.increment();
+		}
+
+		@Override
+		public void send(byte[] data, SocketAddress destination) {
+			sent.increment();
+		}
+
+		@Override
+		public void start(Receiver receiver) throws IOException {
+			this.receiver = receiver;
+		}
+
+		@Override
+		public void close() {
+			receiver = null;
+			transports.remove(this);
+		}
+
+		@Override
+		public String toString() {
+			return "ReplayTransport[" + localAddress.getHostAddress() + "]";
+		}
+	}
+}
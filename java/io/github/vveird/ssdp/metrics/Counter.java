@@ -0,0 +1,10 @@
+package io.github.vveird.ssdp.metrics;
+
+public interface Counter {
+
+	public void increment();
+
+	public void add(long delta);
+
+	public long get();
+}
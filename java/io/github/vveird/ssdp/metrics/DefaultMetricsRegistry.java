@@ -0,0 +1,130 @@
+package io.github.vveird.ssdp.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * In-memory registry built on striped {@link LongAdder}s, cheap to update from
+ * many threads at once.
+ */
+public class DefaultMetricsRegistry implements MetricsRegistry {
+
+	private final ConcurrentHashMap<String, AdderCounter> counters = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<String, Log2Histogram> histograms = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+	@Override
+	public boolean isEnabled() {
+		return true;
+	}
+
+	@Override
+	public Counter counter(String name) {
+		return counters.computeIfAbsent(name, n -> new AdderCounter());
+	}
+
+	@Override
+	public Histogram histogram(String name) {
+		return histograms.computeIfAbsent(name, n -> new Log2Histogram());
+	}
+
+	@Override
+	public void gauge(String name, LongSupplier value) {
+		gauges.put(name, value);
+	}
+
+	@Override
+	public Map<String, Long> snapshot() {
+		Map<String, Long> snapshot = new TreeMap<>();
+		counters.forEach((name, c) -> snapshot.put(name, c.get()));
+		gauges.forEach((name, g) -> snapshot.put(name, g.getAsLong()));
+		histograms.forEach((name, h) -> {
+			snapshot.put(name + ".count", h.count());
+			snapshot.put(name + ".p50", h.percentile(50));
+			snapshot.put(name + ".p99", h.percentile(99));
+			snapshot.put(name + ".max", h.percentile(100));
+		});
+		return snapshot;
+	}
+
+	private static class AdderCounter implements Counter {
+
+		private final LongAdder adder = new LongAdder();
+
+		@Override
+		public void increment() {
+			adder.increment();
+		}
+
+		@Override
+		public void add(long delta) {
+			adder.add(delta);
+		}
+
+		@Override
+		public long get() {
+			return adder.sum();
+		}
+	}
+
+	/**
+	 * Histogram with one bucket per power of two nanoseconds, precise to a
+	 * factor of two which is enough to spot slow listeners.
+	 */
+	private static class Log2Histogram implements Histogram {
+
+		private final LongAdder[] buckets = new LongAdder[64];
+
+		Log2Histogram() {
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		@Override
+		public void record(long nanos) {
+			buckets[64 - Long.numberOfLeadingZeros(Math.max(0, nanos))].increment();
+		}
+
+		@Override
+		public long count() {
+			long count = 0;
+			for (LongAdder bucket : buckets) {
+				count += bucket.sum();
+			}
+			return count;
+		}
+
+		@Override
+		public long percentile(double percentile) {
+			long[] counts = new long[buckets.length];
+			long total = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				counts[i] = buckets[i].sum();
+				total += counts[i];
+			}
+			if (total == 0)
+				return 0;
+			long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100d);
+			long seen = 0;
+			int last = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (counts[i] > 0)
+					last = i;
+				if (seen >= Math.max(1, rank))
+					return upperBound(i);
+			}
+			return upperBound(last);
+		}
+
+		private static long upperBound(int bucket) {
+			return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+		}
+	}
+}
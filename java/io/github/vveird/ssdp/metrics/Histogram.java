@@ -0,0 +1,17 @@
+package io.github.vveird.ssdp.metrics;
+
+/**
+ * Latency histogram in nanoseconds.
+ */
+public interface Histogram {
+
+	public void record(long nanos);
+
+	public long count();
+
+	/**
+	 * @param percentile Percentile between 0 and 100
+	 * @return Upper bound of the bucket holding the percentile in nanoseconds
+	 */
+	public long percentile(double percentile);
+}
@@ -0,0 +1,55 @@
+package io.github.vveird.ssdp.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes a {@link MetricsRegistry} as MXBean on the platform MBean server
+ * under <code>io.github.vveird.ssdp:type=SSDPServer,name=&lt;name&gt;</code>.
+ */
+public class JmxMetrics implements MetricsMXBean {
+
+	private final MetricsRegistry registry;
+
+	private final ObjectName objectName;
+
+	public JmxMetrics(MetricsRegistry registry, String name) throws JMException {
+		this.registry = registry;
+		Hashtable<String, String> properties = new Hashtable<>();
+		properties.put("type", "SSDPServer");
+		properties.put("name", ObjectName.quote(name));
+		this.objectName = new ObjectName("io.github.vveird.ssdp", properties);
+	}
+
+	public void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (!server.isRegistered(objectName))
+			server.registerMBean(this, objectName);
+	}
+
+	public void unregister() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(objectName))
+			server.unregisterMBean(objectName);
+	}
+
+	public ObjectName getObjectName() {
+		return objectName;
+	}
+
+	@Override
+	public Map<String, Long> getMetrics() {
+		return registry.snapshot();
+	}
+
+	@Override
+	public long getMetric(String name) {
+		Long value = registry.snapshot().get(name);
+		return value != null ? value : 0;
+	}
+}
@@ -0,0 +1,13 @@
+package io.github.vveird.ssdp.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of a {@link MetricsRegistry}.
+ */
+public interface MetricsMXBean {
+
+	public Map<String, Long> getMetrics();
+
+	public long getMetric(String name);
+}
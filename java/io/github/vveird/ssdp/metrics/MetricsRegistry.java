@@ -0,0 +1,46 @@
+package io.github.vveird.ssdp.metrics;
+
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry the server records its metrics to. Implement it to bridge the
+ * metrics into a monitoring system, use {@link DefaultMetricsRegistry} for the
+ * built-in in-memory registry or {@link #NOOP} to disable metrics.
+ */
+public interface MetricsRegistry {
+
+	/**
+	 * Registry discarding everything, the server skips taking timings when it
+	 * is used.
+	 */
+	public static final MetricsRegistry NOOP = new NoopMetricsRegistry();
+
+	/**
+	 * @return <code>false</code> if recorded values are discarded
+	 */
+	public boolean isEnabled();
+
+	/**
+	 * @return Counter of the name, the same instance for every call with the
+	 *         same name
+	 */
+	public Counter counter(String name);
+
+	/**
+	 * @return Latency histogram of the name, the same instance for every call
+	 *         with the same name
+	 */
+	public Histogram histogram(String name);
+
+	/**
+	 * Registers a value read when a snapshot is taken, e.g. a queue depth.
+	 */
+	public void gauge(String name, LongSupplier value);
+
+	/**
+	 * @return Current value of every counter and gauge, and count and
+	 *         percentiles of every histogram
+	 */
+	public Map<String, Long> snapshot();
+}
@@ -0,0 +1,59 @@
+package io.github.vveird.ssdp.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+final class NoopMetricsRegistry implements MetricsRegistry, Counter, Histogram {
+
+	@Override
+	public boolean isEnabled() {
+		return false;
+	}
+
+	@Override
+	public Counter counter(String name) {
+		return this;
+	}
+
+	@Override
+	public Histogram histogram(String name) {
+		return this;
+	}
+
+	@Override
+	public void gauge(String name, LongSupplier value) {
+	}
+
+	@Override
+	public Map<String, Long> snapshot() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public void increment() {
+	}
+
+	@Override
+	public void add(long delta) {
+	}
+
+	@Override
+	public long get() {
+		return 0;
+	}
+
+	@Override
+	public void record(long nanos) {
+	}
+
+	@Override
+	public long count() {
+		return 0;
+	}
+
+	@Override
+	public long percentile(double percentile) {
+		return 0;
+	}
+}
@@ -0,0 +1,180 @@
+package io.github.vveird.ssdp.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.github.vveird.ssdp.HashedTimingWheel;
+
+/**
+ * Sends the NOTIFY announcements of the registered services on a timing
+ * wheel. The first repetition of a service happens at a random point within
+ * its interval, later ones a little before the interval has passed, so the
+ * announcements of many services are spread evenly instead of going out in
+ * lockstep. Every announcement is sent several times as recommended for
+ * UDP, a failing announcement does not affect the others.
+ */
+class AnnouncementScheduler {
+
+	/**
+	 * Share of the interval a repetition is moved forward at most
+	 */
+	private static final double JITTER = 0.1;
+
+	private Logger logger = LogManager.getLogger(AnnouncementScheduler.class);
+
+	private final HashedTimingWheel wheel;
+
+	private final Consumer<byte[]> sender;
+
+	private final int copies;
+
+	private final long copySpacingMillis;
+
+	private final long initialSpreadMillis;
+
+	private final ConcurrentHashMap<SSDPService, Announcement> announcements = new ConcurrentHashMap<>();
+
+	/**
+	 * @param sender Sends a packet on all interfaces
+	 */
+	public AnnouncementScheduler(SSDPServerConfig config, HashedTimingWheel wheel, Consumer<byte[]> sender) {
+		this.wheel = wheel;
+		this.sender = sender;
+		this.copies = config.getNotifyCopies();
+		this.copySpacingMillis = config.getNotifyCopySpacingMillis();
+		this.initialSpreadMillis = config.getInitialNotifySpreadMillis();
+	}
+
+	/**
+	 * Starts announcing the service, the first announcement goes out within the
+	 * initial spread.
+	 */
+	public void register(SSDPService service) {
+		Announcement a = new Announcement(service);
+		Announcement previous = announcements.put(service, a);
+		if (previous != null)
+			previous.cancel();
+		a.schedule(initialSpreadMillis > 0 ? ThreadLocalRandom.current().nextLong(initialSpreadMillis) : 0);
+	}
+
+	/**
+	 * Stops announcing the service and sends its byebye.
+	 * @return <code>false</code> if the service was not registered
+	 */
+	public boolean unregister(SSDPService service) {
+		Announcement a = announcements.remove(service);
+		if (a == null)
+			return false;
+		a.cancel();
+		sendCopies(service.getTemplates().byebye);
+		return true;
+	}
+
+	/**
+	 * Stops all announcements, sends a byebye for every service. All copies
+	 * are sent before returning, the wheel may be closed afterwards.
+	 */
+	public void close() {
+		List<byte[]> byebyes = new ArrayList<>();
+		for (SSDPService service : announcements.keySet()) {
+			Announcement a = announcements.remove(service);
+			if (a != null) {
+				a.cancel();
+				byebyes.add(service.getTemplates().byebye);
+			}
+		}
+		if (byebyes.isEmpty())
+			return;
+		for (int i = 0; i < copies; i++) {
+			if (i > 0) {
+				try {
+					Thread.sleep(copySpacingMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			for (byte[] byebye : byebyes) {
+				send(byebye);
+			}
+		}
+	}
+
+	private void sendCopies(byte[] packet) {
+		send(packet);
+		for (int i = 1; i < copies; i++) {
+			wheel.schedule(() -> send(packet), i * copySpacingMillis);
+		}
+	}
+
+	private void send(byte[] packet) {
+		try {
+			sender.accept(packet);
+		} catch (RuntimeException e) {
+			logger.error("Error sending SSDP announcement", e);
+		}
+	}
+
+	private class Announcement implements Runnable {
+
+		final SSDPService service;
+
+		boolean first = true;
+
+		volatile boolean cancelled = false;
+
+		volatile HashedTimingWheel.Timeout timeout;
+
+		Announcement(SSDPService service) {
+			this.service = service;
+		}
+
+		void schedule(long delayMillis) {
+			if (cancelled)
+				return;
+			HashedTimingWheel.Timeout t = wheel.schedule(this, delayMillis);
+			timeout = t;
+			// cancel() may have run in between and missed the new timeout
+			if (cancelled)
+				t.cancel();
+		}
+
+		void cancel() {
+			cancelled = true;
+			HashedTimingWheel.Timeout t = timeout;
+			if (t != null)
+				t.cancel();
+		}
+
+		@Override
+		public void run() {
+			long interval = Math.max(1, service.getNotifyInterval()) * 1_000L;
+			try {
+				logger.debug("NOTIFY for [{}] to all interfaces", service.getST());
+				byte[] alive = service.getTemplates().alive;
+				send(alive);
+				for (int i = 1; i < copies; i++) {
+					// No alive copies after the byebye
+					wheel.schedule(() -> {
+						if (!cancelled)
+							send(alive);
+					}, i * copySpacingMillis);
+				}
+			} catch (RuntimeException e) {
+				logger.error("Error announcing " + service.getUSN(), e);
+			} finally {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				// The first repetition picks the phase of the service within its interval
+				long delay = first ? 1 + random.nextLong(interval) : interval - random.nextLong((long) (interval * JITTER) + 1);
+				first = false;
+				schedule(delay);
+			}
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package io.github.vveird.ssdp.server;
+
+import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drops datagrams whose payload was already received from the same sender
+ * within a time window, before they are parsed. Fingerprints of the payload
+ * and sender are kept in a fixed size, direct mapped table, a newer packet
+ * replaces the entry of its slot. Races between receive threads can only let
+ * a duplicate pass, never drop a distinct packet.
+ */
+class DuplicateFilter {
+
+	private final long[] fingerprints;
+
+	private final long[] seen;
+
+	private final int mask;
+
+	private final long windowNanos;
+
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * @param windowMillis Time a payload is remembered
+	 * @param size Number of remembered payloads, rounded up to a power of two
+	 */
+	public DuplicateFilter(long windowMillis, int size) {
+		int slots = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+		this.fingerprints = new long[slots];
+		this.seen = new long[slots];
+		this.mask = slots - 1;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+	}
+
+	/**
+	 * Remembers the datagram.
+	 * @return <code>true</code> if the same payload from the same sender was
+	 *         seen within the window
+	 */
+	public boolean isDuplicate(byte[] data, int offset, int length, SocketAddress from) {
+		long fingerprint = fingerprint(data, offset, length, from);
+		int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+		long now = System.nanoTime();
+		if (fingerprints[slot] == fingerprint && now - seen[slot] < windowNanos) {
+			dropped.increment();
+			return true;
+		}
+		fingerprints[slot] = fingerprint;
+		seen[slot] = now;
+		return false;
+	}
+
+	/**
+	 * @return Number of datagrams dropped as duplicates
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * 64 bit FNV-1a of the payload, mixed with the sender.
+	 */
+	private static long fingerprint(byte[] data, int offset, int length, SocketAddress from) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = offset; i < offset + length; i++) {
+			h ^= data[i] & 0xFF;
+			h *= 0x100000001b3L;
+		}
+		h ^= from != null ? from.hashCode() : 0;
+		// Finalizer of MurmurHash3 to spread the bits over the slot index
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h == 0 ? 1 : h;
+	}
+}
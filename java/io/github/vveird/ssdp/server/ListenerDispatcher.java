@@ -0,0 +1,215 @@
+package io.github.vveird.ssdp.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.github.vveird.ssdp.SSDPListener;
+import io.github.vveird.ssdp.SSDPMessage;
+import io.github.vveird.ssdp.server.SSDPServerConfig.OverflowPolicy;
+
+/**
+ * Decouples the receive path from the {@link SSDPListener}s. Every listener
+ * has a bounded mailbox which is drained on the dispatch executor, one drain
+ * at a time, so each listener sees the messages in the order they were
+ * received while different listeners run in parallel.
+ */
+class ListenerDispatcher {
+
+	/**
+	 * Messages delivered by one drain before the executor is handed back
+	 */
+	private static final int BATCH_SIZE = 64;
+
+	private Logger logger = LogManager.getLogger(ListenerDispatcher.class);
+
+	private final ConcurrentHashMap<SSDPListener, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+	private final Executor executor;
+
+	private final ExecutorService ownedExecutor;
+
+	private final int capacity;
+
+	private final OverflowPolicy overflowPolicy;
+
+	private final LongAdder dropped = new LongAdder();
+
+	private final ServerMetrics metrics;
+
+	public ListenerDispatcher(SSDPServerConfig config) {
+		this(config, new ServerMetrics(config.getMetricsRegistry()));
+	}
+
+	public ListenerDispatcher(SSDPServerConfig config, ServerMetrics metrics) {
+		this.metrics = metrics;
+		this.capacity = config.getDispatchQueueCapacity();
+		this.overflowPolicy = config.getOverflowPolicy();
+		if (config.getDispatchExecutor() != null) {
+			this.executor = config.getDispatchExecutor();
+			this.ownedExecutor = null;
+		}
+		else {
+			AtomicInteger threadCount = new AtomicInteger();
+			this.ownedExecutor = Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r);
+				t.setDaemon(true);
+				t.setName("SSDP Listener Dispatch " + threadCount.incrementAndGet());
+				return t;
+			});
+			this.executor = this.ownedExecutor;
+		}
+	}
+
+	/**
+	 * Creates the mailbox of the listener, messages for listeners without one
+	 * are discarded.
+	 */
+	public void add(SSDPListener listener) {
+		mailboxes.computeIfAbsent(listener, Mailbox::new);
+	}
+
+	/**
+	 * Queues the message for the listener, never runs listener code on the
+	 * calling thread. Does nothing if the listener was not added or already
+	 * removed.
+	 */
+	public void dispatch(SSDPListener listener, SSDPMessage msg) {
+		Mailbox mailbox = mailboxes.get(listener);
+		if (mailbox != null)
+			mailbox.offer(msg);
+	}
+
+	/**
+	 * Removes the mailbox of the listener, queued messages are discarded.
+	 */
+	public void remove(SSDPListener listener) {
+		Mailbox mailbox = mailboxes.remove(listener);
+		if (mailbox != null)
+			mailbox.close();
+	}
+
+	/**
+	 * @return Number of messages discarded by the overflow policy
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * @return Messages waiting in all mailboxes
+	 */
+	public long getQueued() {
+		long queued = 0;
+		for (Mailbox mailbox : mailboxes.values()) {
+			queued += mailbox.queue.size();
+		}
+		return queued;
+	}
+
+	public void close() {
+		if (ownedExecutor != null)
+			ownedExecutor.shutdown();
+	}
+
+	private class Mailbox implements Runnable {
+
+		private final SSDPListener listener;
+
+		private final BlockingQueue<SSDPMessage> queue = new ArrayBlockingQueue<>(capacity);
+
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		/**
+		 * Set once the listener was removed, offers by receive threads that
+		 * looked the mailbox up before are dropped
+		 */
+		private volatile boolean closed = false;
+
+		Mailbox(SSDPListener listener) {
+			this.listener = listener;
+		}
+
+		void close() {
+			closed = true;
+			// Also releases receive threads blocked in put
+			queue.clear();
+		}
+
+		void offer(SSDPMessage msg) {
+			if (closed)
+				return;
+			switch (overflowPolicy) {
+			case BLOCK:
+				try {
+					queue.put(msg);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					dropped.increment();
+				}
+				break;
+			case DROP_NEWEST:
+				if (!queue.offer(msg))
+					dropped.increment();
+				break;
+			case DROP_OLDEST:
+				while (!queue.offer(msg)) {
+					if (queue.poll() != null)
+						dropped.increment();
+				}
+				break;
+			}
+			schedule();
+		}
+
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					scheduled.set(false);
+					logger.error("Listener dispatch rejected by executor", e);
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			SSDPMessage msg = null;
+			for (int i = 0; i < BATCH_SIZE && !closed && (msg = queue.poll()) != null; i++) {
+				deliver(msg);
+			}
+			scheduled.set(false);
+			if (closed)
+				queue.clear();
+			else if (!queue.isEmpty())
+				schedule();
+		}
+
+		private void deliver(SSDPMessage msg) {
+			long start = metrics.enabled ? System.nanoTime() : 0;
+			try {
+				if (msg.isNotify())
+					listener.notify(msg);
+				else if (msg.isMSearch())
+					listener.msearch(msg);
+				else if (msg.isMSearchResponse())
+					listener.msearchResponse(msg);
+			} catch (RuntimeException e) {
+				logger.error("SSDPListener " + listener + " failed on " + msg.getSSDPType() + " message", e);
+			}
+			if (metrics.enabled)
+				metrics.listenerLatency.record(System.nanoTime() - start);
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package io.github.vveird.ssdp.server;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.github.vveird.ssdp.SSDPMessage;
+import io.github.vveird.ssdp.SSDPStatic.SSDPType;
+
+/**
+ * Selects the messages delivered to a listener registered with
+ * {@link SSDPServer#addSSDPListener(io.github.vveird.ssdp.SSDPListener, ListenerFilter)}.
+ * Every criterion set must match, within a criterion any value may match.
+ * The server evaluates the filters on the raw datagram, packets no listener
+ * is interested in are dropped before they are parsed.
+ */
+public class ListenerFilter {
+
+	/**
+	 * Accepts every message
+	 */
+	public static final ListenerFilter ALL = builder().build();
+
+	private final Set<SSDPType> types;
+
+	private final Set<String> sts;
+
+	private final List<String> stPrefixes;
+
+	private final Set<String> usns;
+
+	private final SubnetFilter subnets;
+
+	private final boolean all;
+
+	private ListenerFilter(FilterBuilder builder) {
+		this.types = builder.types.isEmpty() ? null : Collections.unmodifiableSet(EnumSet.copyOf(builder.types));
+		this.sts = Collections.unmodifiableSet(new HashSet<>(builder.sts));
+		this.stPrefixes = Collections.unmodifiableList(new ArrayList<>(builder.stPrefixes));
+		this.usns = Collections.unmodifiableSet(new HashSet<>(builder.usns));
+		this.subnets = builder.subnets.isEmpty() ? null
+				: new SubnetFilter(builder.subnets, Collections.<String>emptyList());
+		this.all = types == null && sts.isEmpty() && stPrefixes.isEmpty() && usns.isEmpty() && subnets == null;
+	}
+
+	/**
+	 * @return <code>true</code> if the filter accepts every message
+	 */
+	public boolean isAll() {
+		return all;
+	}
+
+	/**
+	 * @return <code>false</code> if no message of the type can match
+	 */
+	boolean acceptsType(SSDPType type) {
+		return types == null || types.contains(type);
+	}
+
+	public boolean matches(SSDPMessage msg) {
+		if (all)
+			return true;
+		if (types != null && !types.contains(msg.getSSDPType()))
+			return false;
+		if (subnets != null) {
+			InetAddress source = msg.getIpAddress() instanceof InetSocketAddress
+					? ((InetSocketAddress) msg.getIpAddress()).getAddress()
+					: null;
+			if (source == null || !subnets.isAllowed(source))
+				return false;
+		}
+		if (!sts.isEmpty() || !stPrefixes.isEmpty()) {
+			String st = msg.getServiceType();
+			if (st == null || !(sts.contains(st) || startsWithAny(st)))
+				return false;
+		}
+		return usns.isEmpty() || (msg.getUSN() != null && usns.contains(msg.getUSN()));
+	}
+
+	/**
+	 * Evaluates the filter on an unparsed datagram, cheap criteria first.
+	 */
+	boolean matches(PacketView packet) {
+		if (all)
+			return true;
+		if (types != null && !types.contains(packet.type()))
+			return false;
+		if (subnets != null) {
+			InetAddress source = packet.source();
+			if (source == null || !subnets.isAllowed(source))
+				return false;
+		}
+		if (!sts.isEmpty() || !stPrefixes.isEmpty()) {
+			boolean matched = false;
+			for (String st : sts) {
+				if (matched = packet.stEquals(st))
+					break;
+			}
+			for (int i = 0; !matched && i < stPrefixes.size(); i++) {
+				matched = packet.stStartsWith(stPrefixes.get(i));
+			}
+			if (!matched)
+				return false;
+		}
+		if (usns.isEmpty())
+			return true;
+		for (String usn : usns) {
+			if (packet.usnEquals(usn))
+				return true;
+		}
+		return false;
+	}
+
+	private boolean startsWithAny(String st) {
+		for (String prefix : stPrefixes) {
+			if (st.startsWith(prefix))
+				return true;
+		}
+		return false;
+	}
+
+	public static FilterBuilder builder() {
+		return new FilterBuilder();
+	}
+
+	public static class FilterBuilder {
+
+		private final Set<SSDPType> types = new HashSet<>();
+
+		private final Set<String> sts = new HashSet<>();
+
+		private final List<String> stPrefixes = new ArrayList<>();
+
+		private final Set<String> usns = new HashSet<>();
+
+		private final List<String> subnets = new ArrayList<>();
+
+		private FilterBuilder() {
+		}
+
+		/**
+		 * Accepts messages of the types
+		 */
+		public FilterBuilder types(SSDPType... types) {
+			Collections.addAll(this.types, types);
+			return this;
+		}
+
+		/**
+		 * Accepts messages with the ST, or NT for NOTIFY
+		 */
+		public FilterBuilder st(String st) {
+			this.sts.add(st);
+			return this;
+		}
+
+		/**
+		 * Accepts messages whose ST, or NT for NOTIFY, starts with the prefix,
+		 * e.g. <code>urn:schemas-upnp-org:device:</code>
+		 */
+		public FilterBuilder stPrefix(String prefix) {
+			this.stPrefixes.add(prefix);
+			return this;
+		}
+
+		/**
+		 * Accepts messages of the USN
+		 */
+		public FilterBuilder usn(String usn) {
+			this.usns.add(usn);
+			return this;
+		}
+
+		/**
+		 * Accepts messages sent from the subnet.
+		 * @param cidr Literal subnet like <code>192.168.0.0/16</code>
+		 */
+		public FilterBuilder subnet(String cidr) {
+			SubnetFilter.parse(cidr);
+			this.subnets.add(cidr);
+			return this;
+		}
+
+		public ListenerFilter build() {
+			return new ListenerFilter(this);
+		}
+	}
+}
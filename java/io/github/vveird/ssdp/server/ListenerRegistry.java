@@ -0,0 +1,116 @@
+package io.github.vveird.ssdp.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.github.vveird.ssdp.SSDPListener;
+import io.github.vveird.ssdp.SSDPStatic.SSDPType;
+
+/**
+ * Listeners of a server, shared by all interfaces. Changes build a new
+ * immutable snapshot with the subscriptions split by message type, the
+ * receive path reads the current snapshot from a volatile field and iterates
+ * plain arrays without locking.
+ */
+class ListenerRegistry {
+
+	static class Subscription {
+
+		final SSDPListener listener;
+
+		final ListenerFilter filter;
+
+		Subscription(SSDPListener listener, ListenerFilter filter) {
+			this.listener = listener;
+			this.filter = filter;
+		}
+	}
+
+	static final class Snapshot {
+
+		private static final Subscription[] NONE = new Subscription[0];
+
+		static final Snapshot EMPTY = new Snapshot(new ArrayList<>());
+
+		final List<Subscription> subscriptions;
+
+		final Subscription[] notify;
+
+		final Subscription[] msearch;
+
+		final Subscription[] msearchResponse;
+
+		/**
+		 * <code>true</code> if a subscription accepts every message
+		 */
+		final boolean wantsAll;
+
+		private Snapshot(List<Subscription> subscriptions) {
+			this.subscriptions = subscriptions;
+			this.notify = select(subscriptions, SSDPType.NOTIFY);
+			this.msearch = select(subscriptions, SSDPType.M_SEARCH);
+			this.msearchResponse = select(subscriptions, SSDPType.SSDP_RESPONSE);
+			boolean all = false;
+			for (Subscription s : subscriptions) {
+				all |= s.filter.isAll();
+			}
+			this.wantsAll = all;
+		}
+
+		/**
+		 * @return Subscriptions accepting messages of the type
+		 */
+		Subscription[] forType(SSDPType type) {
+			if (type == null)
+				return NONE;
+			switch (type) {
+			case NOTIFY:
+				return notify;
+			case M_SEARCH:
+				return msearch;
+			default:
+				return msearchResponse;
+			}
+		}
+
+		private static Subscription[] select(List<Subscription> subscriptions, SSDPType type) {
+			List<Subscription> selected = new ArrayList<>();
+			for (Subscription s : subscriptions) {
+				if (s.filter.acceptsType(type))
+					selected.add(s);
+			}
+			return selected.isEmpty() ? NONE : selected.toArray(new Subscription[selected.size()]);
+		}
+	}
+
+	private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+	/**
+	 * @return Current subscriptions, never changes once returned
+	 */
+	Snapshot snapshot() {
+		return snapshot;
+	}
+
+	synchronized void add(SSDPListener listener, ListenerFilter filter) {
+		List<Subscription> subscriptions = new ArrayList<>(snapshot.subscriptions);
+		subscriptions.add(new Subscription(listener, filter));
+		snapshot = new Snapshot(subscriptions);
+	}
+
+	/**
+	 * Removes all subscriptions of the listener.
+	 * @return <code>true</code> if the listener was subscribed
+	 */
+	synchronized boolean remove(SSDPListener listener) {
+		List<Subscription> subscriptions = new ArrayList<>(snapshot.subscriptions);
+		if (!subscriptions.removeIf(s -> s.listener == listener))
+			return false;
+		snapshot = new Snapshot(subscriptions);
+		return true;
+	}
+
+	int size() {
+		return snapshot.subscriptions.size();
+	}
+}
@@ -0,0 +1,120 @@
+package io.github.vveird.ssdp.server;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import io.github.vveird.ssdp.SSDPParser;
+import io.github.vveird.ssdp.SSDPStatic.SSDPType;
+
+/**
+ * Unparsed view of a received datagram used to evaluate
+ * {@link ListenerFilter}s. The start line and the ST, NT and USN headers are
+ * located on first use, values are compared on the bytes without decoding.
+ */
+class PacketView {
+
+	private static final String[] HEADERS = { "ST", "NT", "USN" };
+
+	private static final int ST = 0;
+
+	private static final int NT = 1;
+
+	private static final int USN = 2;
+
+	private final byte[] data;
+
+	private final int offset;
+
+	private final int length;
+
+	private final SocketAddress from;
+
+	private SSDPType type;
+
+	private boolean typeParsed = false;
+
+	private long[] ranges = null;
+
+	PacketView(byte[] data, int offset, int length, SocketAddress from) {
+		this.data = data;
+		this.offset = offset;
+		this.length = length;
+		this.from = from;
+	}
+
+	SSDPType type() {
+		if (!typeParsed) {
+			type = SSDPParser.parseType(data, offset, length);
+			typeParsed = true;
+		}
+		return type;
+	}
+
+	InetAddress source() {
+		return from instanceof InetSocketAddress ? ((InetSocketAddress) from).getAddress() : null;
+	}
+
+	/**
+	 * @return <code>true</code> if the ST, or NT of a NOTIFY, equals the value
+	 */
+	boolean stEquals(String value) {
+		long range = stRange();
+		return range >= 0 && regionMatches(range, value, false);
+	}
+
+	boolean stStartsWith(String prefix) {
+		long range = stRange();
+		return range >= 0 && regionMatches(range, prefix, true);
+	}
+
+	boolean usnEquals(String value) {
+		long range = range(USN);
+		return range >= 0 && regionMatches(range, value, false);
+	}
+
+	private long stRange() {
+		long range = range(ST);
+		return range >= 0 ? range : range(NT);
+	}
+
+	private long range(int header) {
+		if (ranges == null) {
+			ranges = new long[HEADERS.length];
+			SSDPParser.findHeaders(data, offset, length, HEADERS, ranges);
+		}
+		return ranges[header];
+	}
+
+	private boolean regionMatches(long range, String value, boolean prefix) {
+		int start = (int) (range >>> 32);
+		int end = (int) range;
+		int len = end - start;
+		if (prefix ? len < value.length() : len != value.length()) {
+			// Non ASCII values have a different length in bytes
+			return !isAscii(value) && matchesDecoded(start, end, value, prefix);
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c > 0x7F)
+				return matchesDecoded(start, end, value, prefix);
+			if (data[start + i] != c)
+				return false;
+		}
+		return true;
+	}
+
+	private boolean matchesDecoded(int start, int end, String value, boolean prefix) {
+		String decoded = new String(data, start, end - start, StandardCharsets.UTF_8);
+		return prefix ? decoded.startsWith(value) : decoded.equals(value);
+	}
+
+	private static boolean isAscii(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) > 0x7F)
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,96 @@
+package io.github.vveird.ssdp.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token buckets of a fixed number of keys. Buckets live in a direct mapped
+ * table, a key taking over a slot of another key starts with a full bucket, so
+ * memory stays bounded under floods of spoofed senders. Slots are guarded by
+ * a fixed set of striped locks.
+ */
+class RateLimiter {
+
+	private static final int LOCKS = 64;
+
+	private final long[] keys;
+
+	private final double[] tokens;
+
+	private final long[] refilled;
+
+	private final Object[] locks = new Object[LOCKS];
+
+	private final int mask;
+
+	private final double tokensPerNano;
+
+	private final int burst;
+
+	private final LongAdder limited = new LongAdder();
+
+	/**
+	 * @param ratePerSecond Tokens added to every bucket per second
+	 * @param burst Size of every bucket
+	 * @param size Number of buckets, rounded up to a power of two
+	 */
+	public RateLimiter(double ratePerSecond, int burst, int size) {
+		int slots = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+		this.keys = new long[slots];
+		this.tokens = new double[slots];
+		this.refilled = new long[slots];
+		this.mask = slots - 1;
+		this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+		this.burst = Math.max(1, burst);
+		for (int i = 0; i < LOCKS; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * Takes a token from the bucket of the key.
+	 * @return <code>false</code> if the bucket is empty
+	 */
+	public boolean tryAcquire(long key) {
+		key = mix(key);
+		int slot = (int) (key ^ (key >>> 32)) & mask;
+		long now = System.nanoTime();
+		synchronized (locks[slot & (LOCKS - 1)]) {
+			double available = 0;
+			if (keys[slot] != key) {
+				keys[slot] = key;
+				available = burst;
+			}
+			else {
+				available = Math.min(burst, tokens[slot] + (now - refilled[slot]) * tokensPerNano);
+			}
+			refilled[slot] = now;
+			if (available < 1) {
+				tokens[slot] = available;
+				limited.increment();
+				return false;
+			}
+			tokens[slot] = available - 1;
+			return true;
+		}
+	}
+
+	/**
+	 * @return Number of requests refused
+	 */
+	public long getLimited() {
+		return limited.sum();
+	}
+
+	/**
+	 * Finalizer of MurmurHash3, 0 marks an empty slot and is never returned
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h == 0 ? 1 : h;
+	}
+}
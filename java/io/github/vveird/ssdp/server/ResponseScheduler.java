@@ -0,0 +1,169 @@
+package io.github.vveird.ssdp.server;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.github.vveird.ssdp.SSDPClient;
+
+/**
+ * Sends the answers to M-SEARCH requests from a dedicated thread. Every answer
+ * is delayed by a random time within the MX window of the request, a repeated
+ * search of the same requester for the same ST is merged into the pending one.
+ * Searches no service matches are not tracked.
+ */
+class ResponseScheduler {
+
+	/**
+	 * Largest MX honoured, higher values are treated as this one
+	 */
+	static final int MAX_MX = 5;
+
+	private final ServiceIndex serviceIndex;
+
+	private final ScheduledExecutorService sender;
+
+	private final ConcurrentHashMap<Request, Request> pending = new ConcurrentHashMap<>();
+
+	private final LongAdder coalesced = new LongAdder();
+
+	private final ServerMetrics metrics;
+
+	private final SendQueues sendQueues;
+
+	/**
+	 * Budget of all responses sent, <code>null</code> for no limit
+	 */
+	private final RateLimiter budget;
+
+	public ResponseScheduler(ServiceIndex serviceIndex, ServerMetrics metrics, SendQueues sendQueues) {
+		this(serviceIndex, metrics, sendQueues, null);
+	}
+
+	public ResponseScheduler(ServiceIndex serviceIndex, ServerMetrics metrics, SendQueues sendQueues, RateLimiter budget) {
+		this.serviceIndex = serviceIndex;
+		this.metrics = metrics;
+		this.sendQueues = sendQueues;
+		this.budget = budget;
+		this.sender = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			t.setName("SSDP Response Sender");
+			return t;
+		});
+	}
+
+	/**
+	 * Schedules the answers of the services matching the search target.
+	 * @param mx MX of the request in seconds, 0 to answer right away
+	 */
+	public void schedule(SSDPClient client, SocketAddress requester, String st, int mx) {
+		if (sender.isShutdown())
+			return;
+		Request request = new Request(client, requester, st);
+		if (pending.containsKey(request)) {
+			coalesced.increment();
+			return;
+		}
+		// Searches nobody answers leave nothing behind
+		List<byte[]> responses = new ArrayList<>();
+		serviceIndex.match(st, responses::add);
+		if (responses.isEmpty())
+			return;
+		if (pending.putIfAbsent(request, request) != null) {
+			coalesced.increment();
+			return;
+		}
+		long window = Math.min(Math.max(mx, 0), MAX_MX) * 1_000L;
+		try {
+			for (byte[] response : responses) {
+				long delay = window > 0 ? ThreadLocalRandom.current().nextLong(window) : 0;
+				sender.schedule(() -> send(client, requester, response), delay, TimeUnit.MILLISECONDS);
+			}
+			// The request stays pending until its window has passed
+			sender.schedule(() -> pending.remove(request), window, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Closed while scheduling, the server is shutting down
+			pending.remove(request);
+		}
+	}
+
+	private void send(SSDPClient client, SocketAddress requester, byte[] response) {
+		if (budget != null && !budget.tryAcquire(0))
+			return;
+		sendQueues.send(client, response, requester, metrics.responsesSent);
+	}
+
+	/**
+	 * @return Number of searches merged into a pending one
+	 */
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	/**
+	 * @return Number of responses dropped by the response budget
+	 */
+	public long getLimited() {
+		return budget != null ? budget.getLimited() : 0;
+	}
+
+	public int getPending() {
+		return pending.size();
+	}
+
+	/**
+	 * Reads the MX header of a M-SEARCH.
+	 * @return MX in seconds, 0 if not present or invalid
+	 */
+	static int parseMx(String mx) {
+		if (mx == null)
+			return 0;
+		try {
+			return Math.max(0, Integer.parseInt(mx.trim()));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	public void close() {
+		sender.shutdownNow();
+	}
+
+	private static class Request {
+
+		final SSDPClient client;
+
+		final SocketAddress requester;
+
+		final String st;
+
+		Request(SSDPClient client, SocketAddress requester, String st) {
+			this.client = client;
+			this.requester = requester;
+			this.st = st;
+		}
+
+		@Override
+		public int hashCode() {
+			return (31 * client.hashCode() + requester.hashCode()) * 31 + st.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof Request))
+				return false;
+			Request r = (Request) o;
+			return client == r.client && requester.equals(r.requester) && st.equals(r.st);
+		}
+	}
+}
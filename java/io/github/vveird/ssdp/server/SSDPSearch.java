@@ -0,0 +1,178 @@
+package io.github.vveird.ssdp.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.github.vveird.ssdp.HashedTimingWheel;
+import io.github.vveird.ssdp.SSDPListener;
+import io.github.vveird.ssdp.SSDPMessage;
+
+/**
+ * A running search. Collects the M-SEARCH answers matching its search target,
+ * one per USN, until MX plus the grace period has passed or the early
+ * completion condition of the {@link SearchRequest} is met.
+ * <p>
+ * The signals to the subscriber are serialized: no two run at the same time
+ * and none follows the terminal <code>onComplete</code> or
+ * <code>onError</code>.
+ */
+public class SSDPSearch {
+
+	private Logger logger = LogManager.getLogger(SSDPSearch.class);
+
+	private final SearchRequest request;
+
+	private final CompletableFuture<List<SSDPMessage>> result = new CompletableFuture<>();
+
+	private final List<SSDPMessage> results = new ArrayList<>();
+
+	private final Set<String> seen = new HashSet<>();
+
+	/**
+	 * Receives the answers from the listener dispatcher
+	 */
+	final SSDPListener listener = new SSDPListener() {
+
+		@Override
+		public void notify(SSDPMessage msg) {
+		}
+
+		@Override
+		public void msearchResponse(SSDPMessage msg) {
+			offer(msg);
+		}
+
+		@Override
+		public void msearch(SSDPMessage msg) {
+		}
+	};
+
+	private HashedTimingWheel.Timeout deadline = null;
+
+	/**
+	 * Held while signalling the subscriber
+	 */
+	private final Object signalLock = new Object();
+
+	/**
+	 * Set once the terminal signal was delivered, guarded by
+	 * <code>signalLock</code>
+	 */
+	private boolean terminated = false;
+
+	SSDPSearch(SearchRequest request) {
+		this.request = request;
+		// Every way of ending the search, including cancelling the future,
+		// stops the deadline and ends the subscription
+		result.whenComplete((list, t) -> {
+			synchronized (this) {
+				if (deadline != null)
+					deadline.cancel();
+			}
+			terminate(list, t);
+		});
+	}
+
+	/**
+	 * Starts the deadline, called once the M-SEARCH was sent.
+	 */
+	void start(HashedTimingWheel wheel) {
+		HashedTimingWheel.Timeout t = wheel.schedule(this::complete,
+				request.getMX() * 1_000L + request.getGraceMillis());
+		synchronized (this) {
+			deadline = t;
+		}
+		if (result.isDone())
+			t.cancel();
+	}
+
+	public SearchRequest getRequest() {
+		return request;
+	}
+
+	/**
+	 * @return Answers of all devices, completed when the search ended.
+	 *         Cancelling the future ends the search.
+	 */
+	public CompletableFuture<List<SSDPMessage>> getResult() {
+		return result;
+	}
+
+	public boolean isDone() {
+		return result.isDone();
+	}
+
+	/**
+	 * Ends the search, the subscriber gets a
+	 * {@link java.util.concurrent.CancellationException}.
+	 */
+	public void cancel() {
+		result.cancel(false);
+	}
+
+	/**
+	 * @return <code>true</code> if the answer belongs to this search
+	 */
+	boolean matches(SSDPMessage msg) {
+		return ServiceIndex.ST_ALL.equals(request.getST()) || request.getST().equals(msg.getServiceType());
+	}
+
+	private void offer(SSDPMessage msg) {
+		boolean done = false;
+		synchronized (this) {
+			if (result.isDone() || !matches(msg) || msg.getUSN() == null || !seen.add(msg.getUSN()))
+				return;
+			results.add(msg);
+			done = results.size() >= request.getMaxResults()
+					|| (request.getUntil() != null && request.getUntil().test(msg));
+		}
+		SearchRequest.Subscriber subscriber = request.getSubscriber();
+		if (subscriber != null) {
+			synchronized (signalLock) {
+				if (!terminated) {
+					try {
+						subscriber.onNext(msg);
+					} catch (RuntimeException e) {
+						logger.error("Search subscriber failed", e);
+					}
+				}
+			}
+		}
+		if (done)
+			complete();
+	}
+
+	void complete() {
+		List<SSDPMessage> list = null;
+		synchronized (this) {
+			list = Collections.unmodifiableList(new ArrayList<>(results));
+		}
+		result.complete(list);
+	}
+
+	private void terminate(List<SSDPMessage> list, Throwable t) {
+		SearchRequest.Subscriber subscriber = request.getSubscriber();
+		if (subscriber == null)
+			return;
+		synchronized (signalLock) {
+			if (terminated)
+				return;
+			terminated = true;
+			try {
+				if (t == null)
+					subscriber.onComplete(list);
+				else
+					subscriber.onError(t);
+			} catch (RuntimeException e) {
+				logger.error("Search subscriber failed", e);
+			}
+		}
+	}
+}
@@ -1,86 +1,360 @@
 package io.github.vveird.ssdp.server;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.SocketTimeoutException;
+import java.net.SocketAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.UUID;
-import java.util.regex.Matcher;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
+import javax.management.JMException;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import io.github.vveird.ssdp.BufferPool;
+import io.github.vveird.ssdp.DescriptionFetcher;
+import io.github.vveird.ssdp.HashedTimingWheel;
 import io.github.vveird.ssdp.RegexHelper;
 import io.github.vveird.ssdp.SSDPClient;
+import io.github.vveird.ssdp.SSDPDeviceRegistry;
 import io.github.vveird.ssdp.SSDPListener;
 import io.github.vveird.ssdp.SSDPMessage;
-import io.github.vveird.ssdp.SSDPStatic;
 import io.github.vveird.ssdp.SSDPStatic.SSDPType;
+import io.github.vveird.ssdp.capture.PacketCapture;
+import io.github.vveird.ssdp.metrics.JmxMetrics;
+import io.github.vveird.ssdp.metrics.MetricsRegistry;
+import io.github.vveird.ssdp.server.SSDPServerConfig.TransportMode;
+import io.github.vveird.ssdp.transport.ChannelTransportFactory;
+import io.github.vveird.ssdp.transport.SocketTransport;
+import io.github.vveird.ssdp.transport.Transport;
+import io.github.vveird.ssdp.transport.TransportFactory;
 
 public class SSDPServer {
 	
-	Map<String, SSDPService> services = new HashMap<>();
-	Map<String, NotifyTask> notifiyTasks = new HashMap<>();
+	private Logger logger = LogManager.getLogger(SSDPServer.class);
+	
+	Map<String, SSDPService> services = new ConcurrentHashMap<>();
+	
+	ServiceIndex serviceIndex = new ServiceIndex();
+	
+	ResponseScheduler responseScheduler = null;
 	
 	List<SSDPClient> clients = null;
 	
-	List<DiscoverThread> discoveryThreads = new LinkedList<>();
+	/**
+	 * Event loops of the channels, <code>null</code> unless the server opened
+	 * them for {@link TransportMode#SELECTOR}
+	 */
+	ChannelTransportFactory channelFactory = null;
+	
+	AnnouncementScheduler announcer = null;
+	
+	SSDPServerConfig config = null;
+	
+	ListenerDispatcher dispatcher = null;
+	
+	SSDPDeviceRegistry deviceRegistry = null;
+	
+	DescriptionFetcher descriptionFetcher = null;
+	
+	DuplicateFilter duplicateFilter = null;
+	
+	ServerMetrics metrics = null;
+	
+	JmxMetrics jmxMetrics = null;
+	
+	/**
+	 * Timer of the announcements and search deadlines
+	 */
+	HashedTimingWheel wheel = null;
+	
+	SendQueues sendQueues = null;
+	
+	Set<SSDPSearch> searches = ConcurrentHashMap.newKeySet();
 	
-	Timer notifier = null;
+	ListenerRegistry listeners = new ListenerRegistry();
+	
+	/**
+	 * Limits of inbound M-SEARCH requests, <code>null</code> if disabled
+	 */
+	RateLimiter sourceLimiter = null;
+	
+	RateLimiter stLimiter = null;
+	
+	SubnetFilter subnetFilter = null;
+	
+	/**
+	 * Recorded datagrams, <code>null</code> unless a capture buffer is
+	 * configured
+	 */
+	PacketCapture capture = null;
 	
 	public SSDPServer() {
-		this.notifier = new Timer();
+		this(SSDPServerConfig.builder().build());
+	}
+	
+	public SSDPServer(SSDPServerConfig config) {
+		this.config = config;
+		this.metrics = new ServerMetrics(config.getMetricsRegistry());
+		this.dispatcher = new ListenerDispatcher(config, metrics);
+		this.sendQueues = new SendQueues(config, metrics);
+		if (config.getMsearchSourceRate() > 0)
+			this.sourceLimiter = new RateLimiter(config.getMsearchSourceRate(), config.getMsearchSourceBurst(), config.getRateLimiterSize());
+		if (config.getMsearchStRate() > 0)
+			this.stLimiter = new RateLimiter(config.getMsearchStRate(), config.getMsearchStBurst(), config.getRateLimiterSize());
+		SubnetFilter filter = new SubnetFilter(config.getAllowedSubnets(), config.getDeniedSubnets());
+		if (!filter.isEmpty())
+			this.subnetFilter = filter;
+		this.responseScheduler = new ResponseScheduler(serviceIndex, metrics, sendQueues,
+				config.getResponseRate() > 0 ? new RateLimiter(config.getResponseRate(), config.getResponseBurst(), 1) : null);
+		this.wheel = new HashedTimingWheel("SSDP Timer", 20, 2048);
+		this.announcer = new AnnouncementScheduler(config, wheel, this::sendNotify);
+		if (config.getDuplicateWindowMillis() > 0)
+			this.duplicateFilter = new DuplicateFilter(config.getDuplicateWindowMillis(), config.getDuplicateFilterSize());
 		this.clients = new LinkedList<SSDPClient>();
-		try {
-			List<InetAddress> ipv4Adresses = new ArrayList<>();
-				ipv4Adresses = Arrays
-						.asList(InetAddress.getAllByName(InetAddress.getLocalHost().getHostName())).stream()
-						.filter(i -> RegexHelper.IP_V_4_PATTERN.matcher(i.toString()).matches()).collect(Collectors.toList());
-			// Init SSDP Clients
-			for (InetAddress ipv4Adress : ipv4Adresses) {
-				try {
-					SSDPClient ssdpClient = new SSDPClient(ipv4Adress);
-					ssdpClient.setTimeout(SSDPStatic.TIMEOUT);
-					clients.add(ssdpClient);
-					DiscoverThread dt = new DiscoverThread(ssdpClient);
-					discoveryThreads.add(dt);
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+		TransportFactory transports = transportFactory();
+		if (config.getCaptureBufferSize() > 0) {
+			this.capture = new PacketCapture(config.getCaptureBufferSize());
+			transports = capture.wrap(transports);
+		}
+		// Init SSDP Clients
+		for (InetAddress ipv4Adress : localAddresses()) {
+			try {
+				SSDPClient ssdpClient = new SSDPClient(transports.open(ipv4Adress));
+				clients.add(ssdpClient);
+				ssdpClient.start(new PacketReceiver(ssdpClient));
+			} catch (IOException e) {
+				logger.error("Error opening SSDP client on " + ipv4Adress, e);
 			}
+		}
+		if (config.getDeviceSnapshotFile() != null)
+			restoreDevices();
+		registerMetrics();
+	}
+	
+	/**
+	 * @return Configured factory, otherwise channels served by the event loops
+	 *         or blocking sockets
+	 */
+	private TransportFactory transportFactory() {
+		if (config.getTransportFactory() != null)
+			return config.getTransportFactory();
+		if (config.getTransportMode() == TransportMode.SELECTOR) {
+			try {
+				this.channelFactory = new ChannelTransportFactory(config.getEventLoopThreads(),
+						new BufferPool(config.getMaxDatagramSize(), config.getBufferPoolSize()));
+				return this.channelFactory;
+			} catch (IOException e) {
+				logger.error("Error opening SSDP event loop, falling back to blocking sockets", e);
+			}
+		}
+		return SocketTransport.factory(config.getMaxDatagramSize());
+	}
+	
+	/**
+	 * @return Configured interface addresses, otherwise the IPv4 addresses of
+	 *         the local host
+	 */
+	private List<InetAddress> localAddresses() {
+		if (!config.getLocalAddresses().isEmpty())
+			return config.getLocalAddresses();
+		try {
+			return Arrays.asList(InetAddress.getAllByName(InetAddress.getLocalHost().getHostName())).stream()
+					.filter(i -> RegexHelper.IP_V_4_PATTERN.matcher(i.toString()).matches()).collect(Collectors.toList());
 		} catch (UnknownHostException e) {
-			e.printStackTrace();
+			logger.error("Error resolving the local interfaces", e);
+			return new ArrayList<>();
+		}
+	}
+	
+	/**
+	 * Creates the device registry from the snapshot file and keeps saving it
+	 */
+	private synchronized void restoreDevices() {
+		SSDPDeviceRegistry registry = new SSDPDeviceRegistry();
+		try {
+			int loaded = registry.load(config.getDeviceSnapshotFile());
+			logger.info("Restored " + loaded + " devices from " + config.getDeviceSnapshotFile());
+		} catch (IOException e) {
+			logger.warn("Ignoring device snapshot " + config.getDeviceSnapshotFile(), e);
+		}
+		registry.persist(config.getDeviceSnapshotFile(), config.getDeviceSnapshotIntervalMillis());
+		this.deviceRegistry = registry;
+		addSSDPListener(registry);
+	}
+	
+	private void registerMetrics() {
+		if (!metrics.enabled)
+			return;
+		metrics.registry.gauge("dispatch.queued", dispatcher::getQueued);
+		metrics.registry.gauge("dispatch.dropped", dispatcher::getDropped);
+		metrics.registry.gauge("rx.duplicates", this::getDuplicatesDropped);
+		metrics.registry.gauge("msearch.pending", () -> responseScheduler.getPending());
+		metrics.registry.gauge("msearch.coalesced", responseScheduler::getCoalesced);
+		metrics.registry.gauge("msearch.limited.source", () -> sourceLimiter != null ? sourceLimiter.getLimited() : 0);
+		metrics.registry.gauge("msearch.limited.st", () -> stLimiter != null ? stLimiter.getLimited() : 0);
+		metrics.registry.gauge("msearch.responses.limited", responseScheduler::getLimited);
+		metrics.registry.gauge("tx.queued", sendQueues::getQueued);
+		metrics.registry.gauge("tx.dropped", sendQueues::getDropped);
+		metrics.registry.gauge("services", () -> services.size());
+		metrics.registry.gauge("searches.active", () -> searches.size());
+		metrics.registry.gauge("listeners", () -> listeners.size());
+		if (config.getJmxName() != null) {
+			try {
+				jmxMetrics = new JmxMetrics(metrics.registry, config.getJmxName());
+				jmxMetrics.register();
+			} catch (JMException e) {
+				logger.error("Error publishing SSDP metrics over JMX", e);
+			}
 		}
 	}
 	
+	public MetricsRegistry getMetrics() {
+		return metrics.registry;
+	}
+	
+	/**
+	 * @return Datagrams received and sent on all interfaces,
+	 *         <code>null</code> unless a capture buffer is configured
+	 */
+	public PacketCapture getCapture() {
+		return capture;
+	}
+	
+	/**
+	 * Stops all receive threads and event loops and closes the transports of
+	 * all interfaces.
+	 */
+	public void close() {
+		this.announcer.close();
+		for (SSDPSearch search : searches) {
+			search.cancel();
+		}
+		this.wheel.close();
+		this.responseScheduler.close();
+		// The byebyes go out before the sockets are closed
+		this.sendQueues.close();
+		if (this.channelFactory != null)
+			this.channelFactory.close();
+		for (SSDPClient ssdpClient : clients) {
+			ssdpClient.close();
+		}
+		this.dispatcher.close();
+		if (this.jmxMetrics != null) {
+			try {
+				this.jmxMetrics.unregister();
+			} catch (JMException e) {
+				logger.error("Error removing SSDP metrics from JMX", e);
+			}
+		}
+		if (this.deviceRegistry != null)
+			this.deviceRegistry.close();
+		if (this.descriptionFetcher != null)
+			this.descriptionFetcher.close();
+	}
+	
+	/**
+	 * @return Number of received datagrams dropped as duplicates
+	 */
+	public long getDuplicatesDropped() {
+		return duplicateFilter != null ? duplicateFilter.getDropped() : 0;
+	}
+	
+	/**
+	 * @return Registry of the devices discovered by this server, created and
+	 *         subscribed on first use
+	 */
+	public synchronized SSDPDeviceRegistry getDeviceRegistry() {
+		if (this.deviceRegistry == null) {
+			this.deviceRegistry = new SSDPDeviceRegistry();
+			addSSDPListener(this.deviceRegistry);
+		}
+		return this.deviceRegistry;
+	}
+	
+	/**
+	 * @return Cache of the device descriptions shared by all listeners,
+	 *         created on first use
+	 */
+	public synchronized DescriptionFetcher getDescriptionFetcher() {
+		if (this.descriptionFetcher == null)
+			this.descriptionFetcher = DescriptionFetcher.builder().build();
+		return this.descriptionFetcher;
+	}
+	
+	/**
+	 * Registers the service for announcements and M-SEARCH answers. Changes to
+	 * the ST or USN of a registered service require registering it again.
+	 */
 	public void registerService(SSDPService s) {
-		this.services.put(s.getUSN(), s);
-		NotifyTask n = new NotifyTask(s);
-		this.notifiyTasks.put(s.getUSN(), n);
-		this.notifier.scheduleAtFixedRate(n, 0, s.getNotifyInterval() * 1_000);
+		SSDPService previous = this.services.put(s.getUSN(), s);
+		if (previous != null)
+			this.serviceIndex.remove(previous);
+		this.serviceIndex.add(s);
+		if (previous != null && previous != s)
+			this.announcer.unregister(previous);
+		this.announcer.register(s);
 	}
 	
-	public void addSSDPListener(SSDPListener listener) {
-		for (DiscoverThread discoverThread : discoveryThreads) {
-			discoverThread.addListener(listener);
+	/**
+	 * Stops announcing the service and answering searches for it, a byebye is
+	 * sent on all interfaces.
+	 * @return <code>false</code> if the service was not registered
+	 */
+	public boolean unregisterService(SSDPService s) {
+		if (!this.services.remove(s.getUSN(), s))
+			return false;
+		this.serviceIndex.remove(s);
+		this.announcer.unregister(s);
+		return true;
+	}
+	
+	/**
+	 * Queues an encoded NOTIFY on all interfaces
+	 */
+	private void sendNotify(byte[] packet) {
+		for (SSDPClient client : clients) {
+			sendQueues.multicast(client, packet, metrics.notifySent);
 		}
 	}
 	
-	public void removeSSDPListener(SSDPListener listener) {
-		for (DiscoverThread discoverThread : discoveryThreads) {
-			discoverThread.removeListener(listener);
+	/**
+	 * @return Number of failed sends on the interface with the address
+	 */
+	public long getSendFailures(InetAddress localAddress) {
+		for (SSDPClient client : clients) {
+			if (localAddress.equals(client.getLocalAddress()))
+				return sendQueues.getFailures(client);
 		}
+		return 0;
+	}
+	
+	public void addSSDPListener(SSDPListener listener) {
+		addSSDPListener(listener, ListenerFilter.ALL);
+	}
+	
+	/**
+	 * Subscribes the listener to the messages accepted by the filter. Datagrams
+	 * no listener, search or registered service needs are dropped before they
+	 * are parsed.
+	 */
+	public void addSSDPListener(SSDPListener listener, ListenerFilter filter) {
+		// The mailbox exists before receive threads can see the subscription
+		dispatcher.add(listener);
+		listeners.add(listener, filter);
+	}
+	
+	public void removeSSDPListener(SSDPListener listener) {
+		listeners.remove(listener);
+		dispatcher.remove(listener);
 	}
 	
 	/**
@@ -88,162 +362,162 @@ public class SSDPServer {
 	 * @param st Service id to search for
 	 */
 	public void sendMulticastSearch(String st) {
+		sendMulticastSearch(SSDPClient.getSSDPSearchMessage(st).getBytes());
+	}
+	
+	private void sendMulticastSearch(byte[] search) {
 		for (SSDPClient ssdpClient : clients) {
-			try {
-				ssdpClient.sendMulticast(SSDPClient.getSSDPSearchMessage(st));
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+			sendQueues.multicast(ssdpClient, search, metrics.searchesSent);
 		}
 	}
 
-	private class NotifyTask extends TimerTask {
-		
-		SSDPService service = null;
-		
-		SSDPMessage sm = null;
-
-		public NotifyTask(SSDPService service) {
-			super();
-			this.service = service;
-			HashMap<String, String> header = new HashMap<>();
-			header.put("CACHE-CONTROL", "max-age " + service.getNotifyInterval());
-			this.sm = new SSDPMessage(SSDPType.NOTIFY, null, service.getLocation(), SSDPStatic.SERVER, service.getST(), service.getUSN(), SSDPStatic.NTS_ALIVE, header, null, 999, "");
-		}
-
-		@Override
-		public void run() {
-			System.out.println("NOTIFY for [" + this.sm.getServiceType() + "] to all interfaces");
-			for (SSDPClient client : clients) {
-				try {
-					client.sendMulticast(this.sm.toString());
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}
+	/**
+	 * Sends a multicast search and collects the answers, one per USN. The
+	 * result completes after MX plus the grace period of the request, or
+	 * earlier when the maximum number of results is reached or the completion
+	 * predicate matches. Answers are also delivered to the SSDPListeners.
+	 * @return Handle of the running search
+	 */
+	public SSDPSearch search(SearchRequest request) {
+		SSDPSearch search = new SSDPSearch(request);
+		dispatcher.add(search.listener);
+		searches.add(search);
+		search.getResult().whenComplete((r, t) -> {
+			searches.remove(search);
+			dispatcher.remove(search.listener);
+		});
+		sendMulticastSearch(SSDPClient.getSSDPSearchMessage(request.getST(), request.getMX()).getBytes());
+		search.start(wheel);
+		return search;
 	}
 	
 	//
 	// Sub-Classes
 	//
-	private class DiscoverThread implements Runnable {
-
-		private Thread tMulticastUdp = null;
-		
-		private Thread tDirectUdp = null;
-		
-		private Logger logger = LogManager.getLogger(DiscoverThread.class);
+	/**
+	 * Handles the datagrams received on one interface
+	 */
+	private class PacketReceiver implements Transport.Receiver {
 		
-		private List<SSDPListener> listeners = new LinkedList<>();
+		private Logger logger = LogManager.getLogger(PacketReceiver.class);
 		
 		private SSDPClient client = null;
 		
-		private boolean looping = true;
+		private ServerMetrics.ClientMetrics clientMetrics = null;
 		
-		public DiscoverThread(SSDPClient client) {
+		public PacketReceiver(SSDPClient client) {
 			this.client = client;
-			this.tMulticastUdp= new Thread(this);
-			this.tMulticastUdp.setDaemon(true);
-			this.tMulticastUdp.setName("DiscoverThread Multicast UDP Daemon " + UUID.randomUUID().toString());
-			this.tMulticastUdp.start();
-			
-			this.tDirectUdp= new Thread(new Runnable() {
-				
-				@Override
-				public void run() {
-					do {
-						try {
-							SSDPMessage sm = SSDPMessage.parse(client.responseReceive(), client);
-							logger.debug("=======================================");
-							logger.debug("Recieved SSDP answer:");
-							logger.debug(sm.toJson());
-							logger.debug("=======================================\r\n");
-							fireSSDPEvent(sm);
-							client.setTimeout(0);
-						} catch (IOException e) {
-							if (!(e instanceof SocketTimeoutException))
-								logger.error("Error encountered while searching for aurora lights", e);
-						}
-					} while(looping);
-				}
-			});
-			this.tDirectUdp.setDaemon(true);
-			this.tDirectUdp.setName("DiscoverThread Direct UDP Daemon " + UUID.randomUUID().toString());
-			this.tDirectUdp.start();
+			this.clientMetrics = metrics.forClient(client);
 		}
 		
-		public void recieveMsearch(SSDPMessage msg) {
-			try {
-				// Wait for MSearches for the registered Services
-				for (SSDPService ssdpService : SSDPServer.this.services.values()) {
-					Matcher urlMatcher = RegexHelper.HTTP_PATTERN.matcher(msg.getLocation());
-					HashMap<String, String> header = new HashMap<>();
-					header.put("CACHE-CONTROL", "max-age " + ssdpService.getNotifyInterval());
-					SSDPMessage sm = new SSDPMessage(
-							SSDPType.SSDP_RESPONSE, 
-							msg.getIpAddress(), 
-							ssdpService.getLocation(),
-							SSDPStatic.SERVER, 
-							ssdpService.getST(), 
-							ssdpService.getUSN(), 
-							SSDPStatic.NTS_ALIVE,
-							header, 
-							null, 
-							200, 
-							""
-					);
-					client.sendResponse(sm);
-				}
-				client.setTimeout(0);
-			} catch (IOException e) {
-				if (!(e instanceof SocketTimeoutException))
-					logger.error("Error encountered while searching for aurora lights", e);
+		@Override
+		public void received(boolean multicast, byte[] data, int length, SocketAddress from) {
+			clientMetrics.rxPackets.increment();
+			clientMetrics.rxBytes.add(length);
+			// A datagram filling the whole buffer may have been cut off
+			if (length >= config.getMaxDatagramSize() && config.getMaxDatagramSize() < BufferPool.MAX_DATAGRAM_SIZE) {
+				// Counted only, a remote sender must not be able to flood the log
+				metrics.rxTruncated.increment();
+				logger.debug("Dropped datagram from {} larger than {} bytes", from, config.getMaxDatagramSize());
+				return;
+			}
+			// Repeated copies of the same announcement are dropped before parsing
+			if (duplicateFilter != null && duplicateFilter.isDuplicate(data, 0, length, from))
+				return;
+			ListenerRegistry.Snapshot subscriptions = listeners.snapshot();
+			if (!isWanted(subscriptions, multicast, data, length, from)) {
+				metrics.rxFiltered.increment();
+				return;
 			}
-			
+			SSDPMessage sm = SSDPMessage.parse(data, 0, length, from, client);
+			if (sm.getSSDPType() == null) {
+				metrics.parseErrors.increment();
+				return;
+			}
+			if (multicast)
+				receivedMulticast(sm, subscriptions);
+			else
+				receivedResponse(sm, subscriptions);
 		}
 		
-		@Override
-		public void run() {
-			do {
-				try {
-					logger.debug("Waiting for Notify");
-					SSDPMessage sm = SSDPMessage.parse(client.multicastReceive(), client);
-					recieveMsearch(sm);
-					fireSSDPEvent(sm);
-					client.setTimeout(0);
-				} catch (IOException e) {
-					if (!(e instanceof SocketTimeoutException))
-						logger.error("Error encountered while searching for aurora lights", e);
-				}
-			} while(looping);
+		/**
+		 * Checks the start line and a few headers of the datagram against the
+		 * filters of the listeners and the needs of the server itself.
+		 */
+		private boolean isWanted(ListenerRegistry.Snapshot subscriptions, boolean multicast, byte[] data, int length,
+				SocketAddress from) {
+			if (subscriptions.wantsAll)
+				return true;
+			PacketView packet = new PacketView(data, 0, length, from);
+			SSDPType type = packet.type();
+			// Unknown datagrams go on to be counted as parse errors
+			if (type == null)
+				return true;
+			if (multicast && type == SSDPType.M_SEARCH && !services.isEmpty())
+				return true;
+			if (!multicast && type == SSDPType.SSDP_RESPONSE && !searches.isEmpty())
+				return true;
+			for (ListenerRegistry.Subscription s : subscriptions.forType(type)) {
+				if (s.filter.matches(packet))
+					return true;
+			}
+			return false;
 		}
 		
-		public void addListener(SSDPListener listener) {
-			this.listeners.add(listener);
+		private void receivedMulticast(SSDPMessage sm, ListenerRegistry.Snapshot subscriptions) {
+			if (sm.isMSearch())
+				recieveMsearch(sm);
+			fireSSDPEvent(sm, subscriptions);
 		}
 		
-		public void removeListener(SSDPListener listener) {
-			this.listeners.remove(listener);
+		private void receivedResponse(SSDPMessage sm, ListenerRegistry.Snapshot subscriptions) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("=======================================");
+				logger.debug("Recieved SSDP answer:");
+				logger.debug(sm.toJson());
+				logger.debug("=======================================\r\n");
+			}
+			for (SSDPSearch search : searches) {
+				if (search.matches(sm))
+					dispatcher.dispatch(search.listener, sm);
+			}
+			fireSSDPEvent(sm, subscriptions);
 		}
 		
-		private void fireSSDPEvent(SSDPMessage msg) {
-			logger.debug("SSDP message recieved: " + msg.getSSDPType() + String.format("(ST: %s, USN: %s, Location: %s, NTS: %s)",
-					msg.getServiceType(), msg.getUSN(), msg.getLocation(), msg.getNTS()));
-			if(msg.isNotify()) {
-				for (SSDPListener ssdpListener : listeners) {
-					ssdpListener.notify(msg);
-				}
-			}
-			else if(msg.isMSearch()) {
-				for (SSDPListener ssdpListener : listeners) {
-					ssdpListener.msearch(msg);
-				}
+		public void recieveMsearch(SSDPMessage msg) {
+			String man = msg.getHeader("MAN");
+			if (man == null || !man.toLowerCase().contains("ssdp:discover") || msg.getServiceType() == null)
+				return;
+			if (!isAccepted(msg.getIpAddress(), msg.getServiceType()))
+				return;
+			// Answer with the registered services matching the search target,
+			// spread over the MX window of the request
+			responseScheduler.schedule(client, msg.getIpAddress(), msg.getServiceType(),
+					ResponseScheduler.parseMx(msg.getHeader("MX")));
+		}
+		
+		/**
+		 * Applies the subnet filter and the rate limits of the source and the
+		 * search target.
+		 */
+		private boolean isAccepted(SocketAddress from, String st) {
+			InetAddress source = from instanceof InetSocketAddress ? ((InetSocketAddress) from).getAddress() : null;
+			if (subnetFilter != null && source != null && !subnetFilter.isAllowed(source)) {
+				metrics.msearchDenied.increment();
+				return false;
 			}
-			else if(msg.isMSearchResponse()) {
-				for (SSDPListener ssdpListener : listeners) {
-					ssdpListener.msearchResponse(msg);
-				}
+			if (sourceLimiter != null && source != null && !sourceLimiter.tryAcquire(source.hashCode()))
+				return false;
+			return stLimiter == null || stLimiter.tryAcquire(st.hashCode());
+		}
+		
+		private void fireSSDPEvent(SSDPMessage msg, ListenerRegistry.Snapshot subscriptions) {
+			if (logger.isDebugEnabled())
+				logger.debug("SSDP message recieved: " + msg.getSSDPType() + String.format("(ST: %s, USN: %s, Location: %s, NTS: %s)",
+						msg.getServiceType(), msg.getUSN(), msg.getLocation(), msg.getNTS()));
+			for (ListenerRegistry.Subscription s : subscriptions.forType(msg.getSSDPType())) {
+				if (s.filter.matches(msg))
+					dispatcher.dispatch(s.listener, msg);
 			}
 		}
 	}
@@ -0,0 +1,654 @@
+package io.github.vveird.ssdp.server;
+
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+import io.github.vveird.ssdp.BufferPool;
+import io.github.vveird.ssdp.metrics.MetricsRegistry;
+import io.github.vveird.ssdp.transport.TransportFactory;
+
+public class SSDPServerConfig {
+
+	public static enum TransportMode {
+		/**
+		 * Two blocking receive threads per interface
+		 */
+		BLOCKING,
+		/**
+		 * Non-blocking channels of all interfaces served by selector event loops
+		 */
+		SELECTOR
+	}
+
+	public static enum OverflowPolicy {
+		/**
+		 * The receive path waits until the listener has room again
+		 */
+		BLOCK,
+		/**
+		 * The oldest queued message of the listener is discarded
+		 */
+		DROP_OLDEST,
+		/**
+		 * The new message is discarded
+		 */
+		DROP_NEWEST
+	}
+
+	private final TransportMode transportMode;
+
+	/**
+	 * Opens the transports of the interfaces, <code>null</code> for sockets or
+	 * channels as selected by the transport mode
+	 */
+	private final TransportFactory transportFactory;
+
+	/**
+	 * Addresses of the interfaces the server runs on, empty for all IPv4
+	 * addresses of the local host
+	 */
+	private final List<InetAddress> localAddresses;
+
+	/**
+	 * Number of selector event loop threads, only used with
+	 * {@link TransportMode#SELECTOR}
+	 */
+	private final int eventLoopThreads;
+
+	/**
+	 * Number of messages queued per listener before the overflow policy applies
+	 */
+	private final int dispatchQueueCapacity;
+
+	private final OverflowPolicy overflowPolicy;
+
+	/**
+	 * Executor running the listener callbacks, <code>null</code> for a daemon
+	 * thread pool owned by the server
+	 */
+	private final Executor dispatchExecutor;
+
+	/**
+	 * Time in milliseconds an identical datagram from the same sender is
+	 * dropped, 0 to disable duplicate suppression
+	 */
+	private final long duplicateWindowMillis;
+
+	/**
+	 * Number of datagrams remembered for duplicate suppression
+	 */
+	private final int duplicateFilterSize;
+
+	/**
+	 * Registry receiving the metrics of the server, {@link MetricsRegistry#NOOP}
+	 * disables metrics
+	 */
+	private final MetricsRegistry metricsRegistry;
+
+	/**
+	 * Name of the MXBean publishing the metrics, <code>null</code> to not
+	 * publish them over JMX
+	 */
+	private final String jmxName;
+
+	/**
+	 * Largest datagram received without being truncated, truncated datagrams
+	 * are dropped
+	 */
+	private final int maxDatagramSize;
+
+	/**
+	 * Number of receive buffers of each kind kept for reuse
+	 */
+	private final int bufferPoolSize;
+
+	/**
+	 * Size in bytes of the ring buffer recording the datagrams of all
+	 * interfaces, 0 to not capture them
+	 */
+	private final int captureBufferSize;
+
+	/**
+	 * Number of times every NOTIFY is sent
+	 */
+	private final int notifyCopies;
+
+	/**
+	 * Milliseconds between the copies of a NOTIFY
+	 */
+	private final long notifyCopySpacingMillis;
+
+	/**
+	 * The first NOTIFY of a newly registered service is sent at a random time
+	 * within this many milliseconds
+	 */
+	private final long initialNotifySpreadMillis;
+
+	/**
+	 * M-SEARCH requests accepted per second from one source address, 0
+	 * disables the limit
+	 */
+	private final double msearchSourceRate;
+
+	private final int msearchSourceBurst;
+
+	/**
+	 * M-SEARCH requests accepted per second for one search target, 0 disables
+	 * the limit
+	 */
+	private final double msearchStRate;
+
+	private final int msearchStBurst;
+
+	/**
+	 * M-SEARCH responses sent per second on all interfaces, 0 disables the
+	 * limit
+	 */
+	private final double responseRate;
+
+	private final int responseBurst;
+
+	/**
+	 * Number of source and search target buckets, bounds the memory used under
+	 * floods of spoofed senders
+	 */
+	private final int rateLimiterSize;
+
+	/**
+	 * Subnets M-SEARCH requests are answered for, empty for all
+	 */
+	private final List<String> allowedSubnets;
+
+	/**
+	 * Subnets M-SEARCH requests are ignored from
+	 */
+	private final List<String> deniedSubnets;
+
+	/**
+	 * Threads draining the outbound queues of the interfaces
+	 */
+	private final int sendThreads;
+
+	/**
+	 * Datagrams queued per interface before new ones are dropped
+	 */
+	private final int sendQueueCapacity;
+
+	/**
+	 * File the discovered devices are saved to and restored from on start,
+	 * <code>null</code> to not persist them
+	 */
+	private final Path deviceSnapshotFile;
+
+	/**
+	 * Milliseconds between two saves of the device snapshot
+	 */
+	private final long deviceSnapshotIntervalMillis;
+
+	/**
+	 * Defaults live in the {@link ConfigBuilder}
+	 */
+	private SSDPServerConfig(ConfigBuilder builder) {
+		super();
+		this.transportMode = builder.transportMode;
+		this.transportFactory = builder.transportFactory;
+		this.localAddresses = Collections.unmodifiableList(new ArrayList<>(builder.localAddresses));
+		this.eventLoopThreads = builder.eventLoopThreads;
+		this.dispatchQueueCapacity = builder.dispatchQueueCapacity;
+		this.overflowPolicy = builder.overflowPolicy;
+		this.dispatchExecutor = builder.dispatchExecutor;
+		this.duplicateWindowMillis = builder.duplicateWindowMillis;
+		this.duplicateFilterSize = builder.duplicateFilterSize;
+		this.metricsRegistry = builder.metricsRegistry;
+		this.jmxName = builder.jmxName;
+		this.maxDatagramSize = builder.maxDatagramSize;
+		this.bufferPoolSize = builder.bufferPoolSize;
+		this.captureBufferSize = builder.captureBufferSize;
+		this.notifyCopies = builder.notifyCopies;
+		this.notifyCopySpacingMillis = builder.notifyCopySpacingMillis;
+		this.initialNotifySpreadMillis = builder.initialNotifySpreadMillis;
+		this.msearchSourceRate = builder.msearchSourceRate;
+		this.msearchSourceBurst = builder.msearchSourceBurst;
+		this.msearchStRate = builder.msearchStRate;
+		this.msearchStBurst = builder.msearchStBurst;
+		this.responseRate = builder.responseRate;
+		this.responseBurst = builder.responseBurst;
+		this.rateLimiterSize = builder.rateLimiterSize;
+		this.allowedSubnets = Collections.unmodifiableList(new ArrayList<>(builder.allowedSubnets));
+		this.deniedSubnets = Collections.unmodifiableList(new ArrayList<>(builder.deniedSubnets));
+		this.sendThreads = builder.sendThreads;
+		this.sendQueueCapacity = builder.sendQueueCapacity;
+		this.deviceSnapshotFile = builder.deviceSnapshotFile;
+		this.deviceSnapshotIntervalMillis = builder.deviceSnapshotIntervalMillis;
+	}
+
+	public TransportMode getTransportMode() {
+		return transportMode;
+	}
+
+	public TransportFactory getTransportFactory() {
+		return transportFactory;
+	}
+
+	public List<InetAddress> getLocalAddresses() {
+		return localAddresses;
+	}
+
+	public int getEventLoopThreads() {
+		return eventLoopThreads;
+	}
+
+	public int getDispatchQueueCapacity() {
+		return dispatchQueueCapacity;
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	public Executor getDispatchExecutor() {
+		return dispatchExecutor;
+	}
+
+	public long getDuplicateWindowMillis() {
+		return duplicateWindowMillis;
+	}
+
+	public int getDuplicateFilterSize() {
+		return duplicateFilterSize;
+	}
+
+	public MetricsRegistry getMetricsRegistry() {
+		return metricsRegistry;
+	}
+
+	public String getJmxName() {
+		return jmxName;
+	}
+
+	public int getMaxDatagramSize() {
+		return maxDatagramSize;
+	}
+
+	public int getBufferPoolSize() {
+		return bufferPoolSize;
+	}
+
+	public int getCaptureBufferSize() {
+		return captureBufferSize;
+	}
+
+	public int getNotifyCopies() {
+		return notifyCopies;
+	}
+
+	public long getNotifyCopySpacingMillis() {
+		return notifyCopySpacingMillis;
+	}
+
+	public long getInitialNotifySpreadMillis() {
+		return initialNotifySpreadMillis;
+	}
+
+	public double getMsearchSourceRate() {
+		return msearchSourceRate;
+	}
+
+	public int getMsearchSourceBurst() {
+		return msearchSourceBurst;
+	}
+
+	public double getMsearchStRate() {
+		return msearchStRate;
+	}
+
+	public int getMsearchStBurst() {
+		return msearchStBurst;
+	}
+
+	public double getResponseRate() {
+		return responseRate;
+	}
+
+	public int getResponseBurst() {
+		return responseBurst;
+	}
+
+	public int getRateLimiterSize() {
+		return rateLimiterSize;
+	}
+
+	public List<String> getAllowedSubnets() {
+		return allowedSubnets;
+	}
+
+	public List<String> getDeniedSubnets() {
+		return deniedSubnets;
+	}
+
+	public int getSendThreads() {
+		return sendThreads;
+	}
+
+	public int getSendQueueCapacity() {
+		return sendQueueCapacity;
+	}
+
+	public Path getDeviceSnapshotFile() {
+		return deviceSnapshotFile;
+	}
+
+	public long getDeviceSnapshotIntervalMillis() {
+		return deviceSnapshotIntervalMillis;
+	}
+
+	public static ConfigBuilder builder() {
+		return new ConfigBuilder();
+	}
+
+	/**
+	 * Creates an executor starting a new virtual thread for every task.
+	 * @throws UnsupportedOperationException if the JDK has no virtual threads
+	 */
+	public static ExecutorService virtualThreadPerTaskExecutor() {
+		try {
+			Method m = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException("Virtual threads are not available on this JDK", e);
+		}
+	}
+
+	public static class ConfigBuilder {
+
+		private TransportMode transportMode = TransportMode.BLOCKING;
+
+		private TransportFactory transportFactory = null;
+
+		private List<InetAddress> localAddresses = new ArrayList<>();
+
+		private int eventLoopThreads = 1;
+
+		private int dispatchQueueCapacity = 1024;
+
+		private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+
+		private Executor dispatchExecutor = null;
+
+		private long duplicateWindowMillis = 2_000;
+
+		private int duplicateFilterSize = 4096;
+
+		private MetricsRegistry metricsRegistry = MetricsRegistry.NOOP;
+
+		private String jmxName = null;
+
+		private int maxDatagramSize = BufferPool.MAX_DATAGRAM_SIZE;
+
+		private int bufferPoolSize = 64;
+
+		private int captureBufferSize = 0;
+
+		private int notifyCopies = 2;
+
+		private long notifyCopySpacingMillis = 100;
+
+		private long initialNotifySpreadMillis = 100;
+
+		private double msearchSourceRate = 5;
+
+		private int msearchSourceBurst = 10;
+
+		private double msearchStRate = 20;
+
+		private int msearchStBurst = 40;
+
+		private double responseRate = 1_000;
+
+		private int responseBurst = 2_000;
+
+		private int rateLimiterSize = 4096;
+
+		private List<String> allowedSubnets = new ArrayList<>();
+
+		private List<String> deniedSubnets = new ArrayList<>();
+
+		private int sendThreads = 2;
+
+		private int sendQueueCapacity = 4096;
+
+		private Path deviceSnapshotFile = null;
+
+		private long deviceSnapshotIntervalMillis = 60_000;
+
+		public ConfigBuilder transportMode(TransportMode transportMode) {
+			this.transportMode = transportMode;
+			return this;
+		}
+
+		/**
+		 * Opens the interfaces with the factory instead of the sockets or
+		 * channels of the transport mode, for example on a
+		 * {@link io.github.vveird.ssdp.transport.VirtualLan}.
+		 */
+		public ConfigBuilder transportFactory(TransportFactory transportFactory) {
+			this.transportFactory = transportFactory;
+			return this;
+		}
+
+		/**
+		 * Runs the server on the interface with the address and other added
+		 * ones instead of all IPv4 addresses of the local host.
+		 */
+		public ConfigBuilder localAddress(InetAddress localAddress) {
+			this.localAddresses.add(localAddress);
+			return this;
+		}
+
+		public ConfigBuilder eventLoopThreads(int eventLoopThreads) {
+			if (eventLoopThreads < 1)
+				throw new IllegalArgumentException("At least one event loop thread is required");
+			this.eventLoopThreads = eventLoopThreads;
+			return this;
+		}
+
+		public ConfigBuilder dispatchQueueCapacity(int dispatchQueueCapacity) {
+			if (dispatchQueueCapacity < 1)
+				throw new IllegalArgumentException("Dispatch queue capacity must be positive");
+			this.dispatchQueueCapacity = dispatchQueueCapacity;
+			return this;
+		}
+
+		public ConfigBuilder overflowPolicy(OverflowPolicy overflowPolicy) {
+			this.overflowPolicy = overflowPolicy;
+			return this;
+		}
+
+		public ConfigBuilder dispatchExecutor(Executor dispatchExecutor) {
+			this.dispatchExecutor = dispatchExecutor;
+			return this;
+		}
+
+		public ConfigBuilder duplicateWindowMillis(long duplicateWindowMillis) {
+			this.duplicateWindowMillis = duplicateWindowMillis;
+			return this;
+		}
+
+		public ConfigBuilder duplicateFilterSize(int duplicateFilterSize) {
+			if (duplicateFilterSize < 1)
+				throw new IllegalArgumentException("Duplicate filter size must be positive");
+			this.duplicateFilterSize = duplicateFilterSize;
+			return this;
+		}
+
+		public ConfigBuilder metricsRegistry(MetricsRegistry metricsRegistry) {
+			this.metricsRegistry = metricsRegistry != null ? metricsRegistry : MetricsRegistry.NOOP;
+			return this;
+		}
+
+		/**
+		 * Publishes the metrics as MXBean with the given name, requires a
+		 * metrics registry. Building the configuration fails without one.
+		 */
+		public ConfigBuilder jmxName(String jmxName) {
+			this.jmxName = jmxName;
+			return this;
+		}
+
+		public ConfigBuilder maxDatagramSize(int maxDatagramSize) {
+			if (maxDatagramSize < 1 || maxDatagramSize > BufferPool.MAX_DATAGRAM_SIZE)
+				throw new IllegalArgumentException("Datagram size must be between 1 and " + BufferPool.MAX_DATAGRAM_SIZE);
+			this.maxDatagramSize = maxDatagramSize;
+			return this;
+		}
+
+		public ConfigBuilder bufferPoolSize(int bufferPoolSize) {
+			if (bufferPoolSize < 1)
+				throw new IllegalArgumentException("Buffer pool size must be positive");
+			this.bufferPoolSize = bufferPoolSize;
+			return this;
+		}
+
+		/**
+		 * Records the datagrams of all interfaces in an off-heap ring buffer of
+		 * the given size, see {@link SSDPServer#getCapture()}.
+		 */
+		public ConfigBuilder captureBufferSize(int captureBufferSize) {
+			if (captureBufferSize < 0)
+				throw new IllegalArgumentException("Capture buffer size must not be negative");
+			this.captureBufferSize = captureBufferSize;
+			return this;
+		}
+
+		public ConfigBuilder notifyCopies(int notifyCopies) {
+			if (notifyCopies < 1)
+				throw new IllegalArgumentException("At least one NOTIFY copy must be sent");
+			this.notifyCopies = notifyCopies;
+			return this;
+		}
+
+		public ConfigBuilder notifyCopySpacingMillis(long notifyCopySpacingMillis) {
+			this.notifyCopySpacingMillis = notifyCopySpacingMillis;
+			return this;
+		}
+
+		/**
+		 * Spreads the first announcements of services registered at the same
+		 * time, e.g. thousands of services at startup.
+		 */
+		public ConfigBuilder initialNotifySpreadMillis(long initialNotifySpreadMillis) {
+			this.initialNotifySpreadMillis = initialNotifySpreadMillis;
+			return this;
+		}
+
+		/**
+		 * Limits the M-SEARCH requests answered per source address.
+		 * @param perSecond Requests per second, 0 for no limit
+		 * @param burst Requests accepted at once
+		 */
+		public ConfigBuilder msearchSourceLimit(double perSecond, int burst) {
+			checkLimit(perSecond, burst);
+			this.msearchSourceRate = perSecond;
+			this.msearchSourceBurst = burst;
+			return this;
+		}
+
+		/**
+		 * Limits the M-SEARCH requests answered per search target.
+		 * @param perSecond Requests per second, 0 for no limit
+		 * @param burst Requests accepted at once
+		 */
+		public ConfigBuilder msearchStLimit(double perSecond, int burst) {
+			checkLimit(perSecond, burst);
+			this.msearchStRate = perSecond;
+			this.msearchStBurst = burst;
+			return this;
+		}
+
+		/**
+		 * Limits the M-SEARCH responses sent by the server.
+		 * @param perSecond Responses per second, 0 for no limit
+		 * @param burst Responses sent at once
+		 */
+		public ConfigBuilder responseLimit(double perSecond, int burst) {
+			checkLimit(perSecond, burst);
+			this.responseRate = perSecond;
+			this.responseBurst = burst;
+			return this;
+		}
+
+		public ConfigBuilder rateLimiterSize(int rateLimiterSize) {
+			if (rateLimiterSize < 1)
+				throw new IllegalArgumentException("Rate limiter size must be positive");
+			this.rateLimiterSize = rateLimiterSize;
+			return this;
+		}
+
+		/**
+		 * Only answers M-SEARCH requests from the subnet and other allowed ones.
+		 * @param cidr Literal subnet like <code>192.168.0.0/16</code>
+		 */
+		public ConfigBuilder allowSubnet(String cidr) {
+			SubnetFilter.parse(cidr);
+			this.allowedSubnets.add(cidr);
+			return this;
+		}
+
+		/**
+		 * Ignores M-SEARCH requests from the subnet.
+		 * @param cidr Literal subnet like <code>192.168.0.0/16</code>
+		 */
+		public ConfigBuilder denySubnet(String cidr) {
+			SubnetFilter.parse(cidr);
+			this.deniedSubnets.add(cidr);
+			return this;
+		}
+
+		public ConfigBuilder sendThreads(int sendThreads) {
+			if (sendThreads < 1)
+				throw new IllegalArgumentException("At least one send thread is required");
+			this.sendThreads = sendThreads;
+			return this;
+		}
+
+		public ConfigBuilder sendQueueCapacity(int sendQueueCapacity) {
+			if (sendQueueCapacity < 1)
+				throw new IllegalArgumentException("Send queue capacity must be positive");
+			this.sendQueueCapacity = sendQueueCapacity;
+			return this;
+		}
+
+		/**
+		 * Restores the device registry from the file on start and saves it there
+		 * regularly and on close.
+		 */
+		public ConfigBuilder deviceSnapshotFile(Path deviceSnapshotFile) {
+			this.deviceSnapshotFile = deviceSnapshotFile;
+			return this;
+		}
+
+		public ConfigBuilder deviceSnapshotIntervalMillis(long deviceSnapshotIntervalMillis) {
+			if (deviceSnapshotIntervalMillis < 1)
+				throw new IllegalArgumentException("Snapshot interval must be positive");
+			this.deviceSnapshotIntervalMillis = deviceSnapshotIntervalMillis;
+			return this;
+		}
+
+		private static void checkLimit(double perSecond, int burst) {
+			if (perSecond < 0 || (perSecond > 0 && burst < 1))
+				throw new IllegalArgumentException("Invalid rate limit: " + perSecond + "/s, burst " + burst);
+		}
+
+		public SSDPServerConfig build() {
+			if (jmxName != null && metricsRegistry == MetricsRegistry.NOOP)
+				throw new IllegalArgumentException("Publishing metrics over JMX requires a metrics registry");
+			return new SSDPServerConfig(this);
+		}
+	}
+}
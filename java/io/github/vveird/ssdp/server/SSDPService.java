@@ -15,6 +15,12 @@ public class SSDPService {
 	 * also the max-age for caching purposes.
 	 */
 	private int notifyInterval = 60;
+	
+	/**
+	 * Encoded packets of this service, dropped by the setters and rebuilt on
+	 * the next send.
+	 */
+	private volatile ServiceTemplates templates = null;
 
 	public SSDPService(String sT, String uSN, String lOCATION, SSDPListener serviceListener, int notifyInterval) {
 		super();
@@ -31,6 +37,7 @@ public class SSDPService {
 
 	public void setST(String sT) {
 		ST = sT;
+		this.templates = null;
 	}
 
 	public String getUSN() {
@@ -39,6 +46,7 @@ public class SSDPService {
 
 	public void setUSN(String uSN) {
 		USN = uSN;
+		this.templates = null;
 	}
 
 	public String getLocation() {
@@ -47,6 +55,7 @@ public class SSDPService {
 
 	public void setLOCATION(String lOCATION) {
 		LOCATION = lOCATION;
+		this.templates = null;
 	}
 
 	public SSDPListener getServiceListener() {
@@ -57,6 +66,15 @@ public class SSDPService {
 		this.serviceListener = serviceListener;
 	}
 	
+	ServiceTemplates getTemplates() {
+		ServiceTemplates t = this.templates;
+		if (t == null) {
+			t = new ServiceTemplates(this);
+			this.templates = t;
+		}
+		return t;
+	}
+	
 	public static ServiceBuilder builder() {
 		return new ServiceBuilder();
 	}
@@ -67,6 +85,7 @@ public class SSDPService {
 	
 	public void setNotifyInterval(int notifyInterval) {
 		this.notifyInterval = notifyInterval;
+		this.templates = null;
 	}
 	
 	public static class ServiceBuilder {
@@ -0,0 +1,153 @@
+package io.github.vveird.ssdp.server;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import io.github.vveird.ssdp.SSDPMessage;
+
+/**
+ * Parameters of a search started with {@link SSDPServer#search(SearchRequest)}.
+ */
+public class SearchRequest {
+
+	/**
+	 * Receives the answers of a search as they arrive, called in order from a
+	 * dispatch thread, never from the receive path.
+	 */
+	public interface Subscriber {
+
+		/**
+		 * Called once for every device (USN) answering the search
+		 */
+		public void onNext(SSDPMessage msg);
+
+		/**
+		 * Called once when the search ended, by deadline or early completion
+		 */
+		public default void onComplete(List<SSDPMessage> results) {
+		}
+
+		/**
+		 * Called instead of {@link #onComplete(List)} if the search failed or was
+		 * cancelled
+		 */
+		public default void onError(Throwable t) {
+		}
+	}
+
+	private final String st;
+
+	private final int mx;
+
+	private final long graceMillis;
+
+	private final int maxResults;
+
+	private final Predicate<SSDPMessage> until;
+
+	private final Subscriber subscriber;
+
+	private SearchRequest(SearchBuilder builder) {
+		this.st = builder.st;
+		this.mx = builder.mx;
+		this.graceMillis = builder.graceMillis;
+		this.maxResults = builder.maxResults;
+		this.until = builder.until;
+		this.subscriber = builder.subscriber;
+	}
+
+	public String getST() {
+		return st;
+	}
+
+	public int getMX() {
+		return mx;
+	}
+
+	public long getGraceMillis() {
+		return graceMillis;
+	}
+
+	public int getMaxResults() {
+		return maxResults;
+	}
+
+	public Predicate<SSDPMessage> getUntil() {
+		return until;
+	}
+
+	public Subscriber getSubscriber() {
+		return subscriber;
+	}
+
+	public static SearchBuilder builder(String st) {
+		return new SearchBuilder(st);
+	}
+
+	public static class SearchBuilder {
+
+		private final String st;
+
+		private int mx = 3;
+
+		private long graceMillis = 500;
+
+		private int maxResults = Integer.MAX_VALUE;
+
+		private Predicate<SSDPMessage> until = null;
+
+		private Subscriber subscriber = null;
+
+		private SearchBuilder(String st) {
+			if (st == null || st.isEmpty())
+				throw new IllegalArgumentException("A search target is required");
+			this.st = st;
+		}
+
+		/**
+		 * Seconds devices may wait before answering, 1 to 5
+		 */
+		public SearchBuilder mx(int mx) {
+			if (mx < 1 || mx > ResponseScheduler.MAX_MX)
+				throw new IllegalArgumentException("MX must be between 1 and " + ResponseScheduler.MAX_MX);
+			this.mx = mx;
+			return this;
+		}
+
+		/**
+		 * Milliseconds answers are still accepted after the MX window
+		 */
+		public SearchBuilder graceMillis(long graceMillis) {
+			this.graceMillis = Math.max(0, graceMillis);
+			return this;
+		}
+
+		/**
+		 * Completes the search as soon as this many devices answered
+		 */
+		public SearchBuilder maxResults(int maxResults) {
+			if (maxResults < 1)
+				throw new IllegalArgumentException("maxResults must be positive");
+			this.maxResults = maxResults;
+			return this;
+		}
+
+		/**
+		 * Completes the search as soon as an answer matches, the answer is part of
+		 * the result
+		 */
+		public SearchBuilder until(Predicate<SSDPMessage> until) {
+			this.until = until;
+			return this;
+		}
+
+		public SearchBuilder subscriber(Subscriber subscriber) {
+			this.subscriber = subscriber;
+			return this;
+		}
+
+		public SearchRequest build() {
+			return new SearchRequest(this);
+		}
+	}
+}
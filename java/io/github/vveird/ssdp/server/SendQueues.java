@@ -0,0 +1,224 @@
+package io.github.vveird.ssdp.server;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.github.vveird.ssdp.SSDPClient;
+import io.github.vveird.ssdp.metrics.Counter;
+
+/**
+ * Outbound datagrams, queued per interface and drained by a small thread
+ * pool. An interface is served by at most one thread at a time, which sends
+ * a batch of pending datagrams per wake-up, so a slow or blocked interface
+ * only delays its own queue.
+ */
+class SendQueues {
+
+	/**
+	 * Datagrams sent per wake-up before the interface yields its thread
+	 */
+	private static final int BATCH_SIZE = 32;
+
+	/**
+	 * Milliseconds {@link #close()} waits for the queues to drain
+	 */
+	private static final long CLOSE_TIMEOUT_MILLIS = 1_000;
+
+	private Logger logger = LogManager.getLogger(SendQueues.class);
+
+	private final ConcurrentHashMap<SSDPClient, InterfaceQueue> queues = new ConcurrentHashMap<>();
+
+	private final ExecutorService executor;
+
+	private final ServerMetrics metrics;
+
+	private final int capacity;
+
+	private final LongAdder dropped = new LongAdder();
+
+	public SendQueues(SSDPServerConfig config, ServerMetrics metrics) {
+		this.metrics = metrics;
+		this.capacity = config.getSendQueueCapacity();
+		AtomicInteger threads = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(config.getSendThreads(), r -> {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			t.setName("SSDP Sender " + threads.getAndIncrement());
+			return t;
+		});
+	}
+
+	/**
+	 * Queues a multicast datagram on the interface.
+	 * @param counter Incremented once the datagram was sent
+	 */
+	public void multicast(SSDPClient client, byte[] data, Counter counter) {
+		send(client, data, null, counter);
+	}
+
+	/**
+	 * Queues a datagram on the interface.
+	 * @param to Receiver, <code>null</code> for the SSDP multicast group
+	 * @param counter Incremented once the datagram was sent
+	 */
+	public void send(SSDPClient client, byte[] data, SocketAddress to, Counter counter) {
+		queues.computeIfAbsent(client, InterfaceQueue::new).offer(new Outbound(data, to, counter));
+	}
+
+	/**
+	 * @return Number of datagrams discarded because the queue of their
+	 *         interface was full
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * @return Datagrams waiting in all queues
+	 */
+	public long getQueued() {
+		long queued = 0;
+		for (InterfaceQueue q : queues.values()) {
+			queued += q.queue.size();
+		}
+		return queued;
+	}
+
+	/**
+	 * @return Number of failed sends on the interface
+	 */
+	public long getFailures(SSDPClient client) {
+		InterfaceQueue q = queues.get(client);
+		return q != null ? q.failures.sum() : 0;
+	}
+
+	/**
+	 * Stops the threads and sends the rest of the queues on the calling
+	 * thread, gives up after a second. Datagrams queued afterwards are
+	 * discarded.
+	 */
+	public void close() {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MILLIS);
+		executor.shutdown();
+		try {
+			// Once the executor stopped, queues rescheduled after their batch
+			// were rejected and are drained here, one thread per queue remains
+			if (executor.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				for (InterfaceQueue q : queues.values()) {
+					q.drain(deadline);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		executor.shutdownNow();
+		long discarded = getQueued();
+		if (discarded > 0)
+			logger.warn("Outbound SSDP queues not drained, " + discarded + " datagrams discarded");
+	}
+
+	private static class Outbound {
+
+		final byte[] data;
+
+		final SocketAddress to;
+
+		final Counter counter;
+
+		Outbound(byte[] data, SocketAddress to, Counter counter) {
+			this.data = data;
+			this.to = to;
+			this.counter = counter;
+		}
+	}
+
+	private class InterfaceQueue implements Runnable {
+
+		private final SSDPClient client;
+
+		private final BlockingQueue<Outbound> queue = new ArrayBlockingQueue<>(capacity);
+
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		private final LongAdder failures = new LongAdder();
+
+		private final ServerMetrics.ClientMetrics clientMetrics;
+
+		InterfaceQueue(SSDPClient client) {
+			this.client = client;
+			this.clientMetrics = metrics.forClient(client);
+		}
+
+		void offer(Outbound o) {
+			if (!queue.offer(o)) {
+				dropped.increment();
+				return;
+			}
+			schedule();
+		}
+
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					scheduled.set(false);
+					logger.debug("Outbound SSDP queue of " + client.getLocalAddress() + " closed");
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			Outbound o = null;
+			for (int i = 0; i < BATCH_SIZE && (o = queue.poll()) != null; i++) {
+				send(o);
+			}
+			scheduled.set(false);
+			if (!queue.isEmpty())
+				schedule();
+		}
+
+		/**
+		 * Sends the queued datagrams until the queue is empty or the deadline
+		 * passed, only called once the executor terminated.
+		 */
+		void drain(long deadline) {
+			Outbound o;
+			while (System.nanoTime() - deadline < 0 && (o = queue.poll()) != null) {
+				send(o);
+			}
+		}
+
+		private void send(Outbound o) {
+			try {
+				if (o.to == null)
+					client.sendMulticast(o.data);
+				else
+					client.send(o.data, o.to);
+				clientMetrics.txPackets.increment();
+				clientMetrics.txBytes.add(o.data.length);
+				o.counter.increment();
+			} catch (IOException e) {
+				failures.increment();
+				clientMetrics.txErrors.increment();
+				metrics.txErrors.increment();
+				logger.error("Error sending SSDP datagram on " + client.getLocalAddress()
+						+ (o.to != null ? " to " + o.to : ""), e);
+			}
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package io.github.vveird.ssdp.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.github.vveird.ssdp.SSDPClient;
+import io.github.vveird.ssdp.metrics.Counter;
+import io.github.vveird.ssdp.metrics.Histogram;
+import io.github.vveird.ssdp.metrics.MetricsRegistry;
+
+/**
+ * Metrics recorded by a {@link SSDPServer}. Per interface metrics are named
+ * <code>&lt;metric&gt;[&lt;local address&gt;]</code>.
+ */
+class ServerMetrics {
+
+	final MetricsRegistry registry;
+
+	/**
+	 * <code>false</code> if the registry discards values, timings are skipped
+	 */
+	final boolean enabled;
+
+	final Counter parseErrors;
+
+	final Counter rxTruncated;
+
+	final Counter rxFiltered;
+
+	final Counter txErrors;
+
+	final Counter notifySent;
+
+	final Counter responsesSent;
+
+	final Counter searchesSent;
+
+	final Counter msearchDenied;
+
+	final Histogram listenerLatency;
+
+	private final ConcurrentHashMap<SSDPClient, ClientMetrics> clients = new ConcurrentHashMap<>();
+
+	ServerMetrics(MetricsRegistry registry) {
+		this.registry = registry;
+		this.enabled = registry.isEnabled();
+		this.parseErrors = registry.counter("rx.parse.errors");
+		this.rxTruncated = registry.counter("rx.truncated");
+		this.rxFiltered = registry.counter("rx.filtered");
+		this.txErrors = registry.counter("tx.errors");
+		this.notifySent = registry.counter("tx.notify");
+		this.responsesSent = registry.counter("tx.msearch.responses");
+		this.searchesSent = registry.counter("tx.msearch");
+		this.msearchDenied = registry.counter("rx.msearch.denied");
+		this.listenerLatency = registry.histogram("listener.latency.nanos");
+	}
+
+	ClientMetrics forClient(SSDPClient client) {
+		return clients.computeIfAbsent(client, c -> new ClientMetrics(registry,
+				c.getLocalAddress() != null ? c.getLocalAddress().getHostAddress() : Integer.toHexString(c.hashCode())));
+	}
+
+	static class ClientMetrics {
+
+		final Counter rxPackets;
+
+		final Counter rxBytes;
+
+		final Counter txPackets;
+
+		final Counter txBytes;
+
+		final Counter txErrors;
+
+		ClientMetrics(MetricsRegistry registry, String name) {
+			this.rxPackets = registry.counter("rx.packets[" + name + "]");
+			this.rxBytes = registry.counter("rx.bytes[" + name + "]");
+			this.txPackets = registry.counter("tx.packets[" + name + "]");
+			this.txBytes = registry.counter("tx.bytes[" + name + "]");
+			this.txErrors = registry.counter("tx.errors[" + name + "]");
+		}
+	}
+}
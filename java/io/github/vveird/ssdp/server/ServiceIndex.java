@@ -0,0 +1,178 @@
+package io.github.vveird.ssdp.server;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Index of the registered services by ST, device UUID and URN type, used to
+ * answer a M-SEARCH without looking at every registered service. Matching
+ * follows the UPnP device architecture:
+ * <ul>
+ * <li><code>ssdp:all</code> matches every service</li>
+ * <li><code>upnp:rootdevice</code> and other targets match the ST exactly</li>
+ * <li><code>uuid:</code> matches the ST exactly or else the device UUID of the
+ * USN</li>
+ * <li>versioned URNs match the same type with an equal or higher version, the
+ * answer carries the version that was searched for</li>
+ * </ul>
+ * The index reflects the ST and USN a service had when it was added.
+ */
+class ServiceIndex {
+
+	static final String ST_ALL = "ssdp:all";
+
+	private static final SSDPService[] EMPTY = new SSDPService[0];
+
+	private final Map<String, SSDPService[]> bySt = new ConcurrentHashMap<>();
+
+	private final Map<String, SSDPService[]> byUuid = new ConcurrentHashMap<>();
+
+	private final Map<String, SSDPService[]> byUrnType = new ConcurrentHashMap<>();
+
+	private volatile SSDPService[] all = EMPTY;
+
+	public synchronized void add(SSDPService service) {
+		all = append(all, service);
+		bySt.put(service.getST(), append(bySt.getOrDefault(service.getST(), EMPTY), service));
+		String uuid = deviceUuid(service.getUSN());
+		if (uuid != null)
+			byUuid.put(uuid, append(byUuid.getOrDefault(uuid, EMPTY), service));
+		String urnType = urnType(service.getST());
+		if (urnType != null)
+			byUrnType.put(urnType, append(byUrnType.getOrDefault(urnType, EMPTY), service));
+	}
+
+	public synchronized void remove(SSDPService service) {
+		all = without(all, service);
+		removeFrom(bySt, service.getST(), service);
+		removeFrom(byUuid, deviceUuid(service.getUSN()), service);
+		removeFrom(byUrnType, urnType(service.getST()), service);
+	}
+
+	/**
+	 * Passes the response packet of every service matching the search target to
+	 * the consumer.
+	 */
+	public void match(String st, Consumer<byte[]> responses) {
+		if (st == null || st.isEmpty())
+			return;
+		if (ST_ALL.equals(st)) {
+			for (SSDPService service : all) {
+				responses.accept(service.getTemplates().response);
+			}
+			return;
+		}
+		String urnType = urnType(st);
+		if (urnType != null) {
+			matchVersion(st, urnType, responses);
+			return;
+		}
+		SSDPService[] exact = bySt.get(st);
+		if (exact != null) {
+			for (SSDPService service : exact) {
+				responses.accept(service.getTemplates().response);
+			}
+			return;
+		}
+		if (st.startsWith("uuid:")) {
+			SSDPService[] device = byUuid.get(st);
+			// One answer per device, carrying the UUID as ST and USN
+			if (device != null && device.length > 0)
+				responses.accept(device[0].getTemplates().responseFor(st, st));
+		}
+	}
+
+	/**
+	 * Matches the services of the URN type with the searched or a higher
+	 * version, an exact match answers with the prepared response.
+	 */
+	private void matchVersion(String st, String urnType, Consumer<byte[]> responses) {
+		SSDPService[] sameType = byUrnType.get(urnType);
+		if (sameType == null)
+			return;
+		int version = urnVersion(st);
+		// Versions like 01 match numerically too, only answers to the canonical
+		// spelling are cached so a peer cannot grow the cache
+		boolean canonical = st.length() == urnType.length() + 1 + Integer.toString(version).length();
+		for (SSDPService service : sameType) {
+			if (st.equals(service.getST())) {
+				responses.accept(service.getTemplates().response);
+			} else if (urnVersion(service.getST()) >= version) {
+				ServiceTemplates templates = service.getTemplates();
+				responses.accept(canonical ? templates.responseFor(st, service.getUSN())
+						: templates.encodeResponse(st, service.getUSN()));
+			}
+		}
+	}
+
+	/**
+	 * @return <code>uuid:...</code> part of the USN or <code>null</code>
+	 */
+	static String deviceUuid(String usn) {
+		if (usn == null || !usn.startsWith("uuid:"))
+			return null;
+		int end = usn.indexOf("::");
+		return end < 0 ? usn : usn.substring(0, end);
+	}
+
+	/**
+	 * @return URN without the trailing version or <code>null</code> if the
+	 *         target is no versioned URN
+	 */
+	static String urnType(String st) {
+		if (st == null || !st.startsWith("urn:"))
+			return null;
+		int colon = st.lastIndexOf(':');
+		return urnVersion(st) < 0 ? null : st.substring(0, colon);
+	}
+
+	/**
+	 * @return Version of an URN, -1 if it has none
+	 */
+	static int urnVersion(String st) {
+		int colon = st.lastIndexOf(':');
+		if (colon < 0 || colon == st.length() - 1)
+			return -1;
+		int version = 0;
+		for (int i = colon + 1; i < st.length(); i++) {
+			char c = st.charAt(i);
+			if (c < '0' || c > '9' || version > 100_000)
+				return -1;
+			version = version * 10 + (c - '0');
+		}
+		return version;
+	}
+
+	private static void removeFrom(Map<String, SSDPService[]> index, String key, SSDPService service) {
+		if (key == null)
+			return;
+		SSDPService[] services = index.get(key);
+		if (services == null)
+			return;
+		services = without(services, service);
+		if (services.length == 0)
+			index.remove(key);
+		else
+			index.put(key, services);
+	}
+
+	private static SSDPService[] append(SSDPService[] services, SSDPService service) {
+		SSDPService[] result = Arrays.copyOf(services, services.length + 1);
+		result[services.length] = service;
+		return result;
+	}
+
+	private static SSDPService[] without(SSDPService[] services, SSDPService service) {
+		for (int i = 0; i < services.length; i++) {
+			if (services[i] == service) {
+				SSDPService[] result = new SSDPService[services.length - 1];
+				System.arraycopy(services, 0, result, 0, i);
+				System.arraycopy(services, i + 1, result, i, services.length - i - 1);
+				return result;
+			}
+		}
+		return services;
+	}
+}
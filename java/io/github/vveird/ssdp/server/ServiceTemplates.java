@@ -0,0 +1,88 @@
+package io.github.vveird.ssdp.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.github.vveird.ssdp.SSDPStatic;
+import io.github.vveird.ssdp.SSDPStatic.SSDPType;
+
+/**
+ * Packets of a {@link SSDPService}, encoded once and sent as they are.
+ */
+final class ServiceTemplates {
+
+	private static final String HOST = "HOST: " + SSDPStatic.MULTICAST_ADDRESS + ":" + SSDPStatic.MULTICAST_PORT;
+
+	/**
+	 * NOTIFY ssdp:alive
+	 */
+	final byte[] alive;
+
+	/**
+	 * NOTIFY ssdp:byebye
+	 */
+	final byte[] byebye;
+
+	/**
+	 * 200 OK answer to a M-SEARCH
+	 */
+	final byte[] response;
+
+	/**
+	 * Answers for search targets other than the ST of the service, keyed by ST
+	 */
+	private final Map<String, byte[]> responsesBySt = new ConcurrentHashMap<>();
+
+	private final String cacheControl;
+
+	private final String location;
+
+	private final String server;
+
+	ServiceTemplates(SSDPService service) {
+		this.cacheControl = "CACHE-CONTROL: max-age=" + service.getNotifyInterval();
+		this.location = service.getLocation() != null && !service.getLocation().trim().isEmpty()
+				? "LOCATION: " + service.getLocation()
+				: null;
+		this.server = "SERVER: " + SSDPStatic.SERVER;
+		String usn = "USN: " + service.getUSN();
+		this.alive = encode(SSDPType.NOTIFY.getHeader(), HOST, cacheControl, location, "NT: " + service.getST(),
+				"NTS: " + SSDPStatic.NTS_ALIVE, server, usn);
+		this.byebye = encode(SSDPType.NOTIFY.getHeader(), HOST, "NT: " + service.getST(),
+				"NTS: " + SSDPStatic.NTS_BYEBYE, usn);
+		this.response = encode(SSDPType.SSDP_RESPONSE.getHeader() + " 200 OK", cacheControl, "EXT:", location, server,
+				"ST: " + service.getST(), usn);
+	}
+
+	/**
+	 * Answer to a M-SEARCH carrying the given ST and USN, e.g. the version
+	 * searched for instead of the version of the service. Encoded once per ST,
+	 * so the ST must come from a bounded set and not straight from the
+	 * request.
+	 */
+	byte[] responseFor(String st, String usn) {
+		return responsesBySt.computeIfAbsent(st, k -> encodeResponse(st, usn));
+	}
+
+	/**
+	 * Answer to a M-SEARCH carrying the given ST and USN, encoded every time.
+	 */
+	byte[] encodeResponse(String st, String usn) {
+		return encode(SSDPType.SSDP_RESPONSE.getHeader() + " 200 OK", cacheControl, "EXT:", location, server,
+				"ST: " + st, "USN: " + usn);
+	}
+
+	/**
+	 * Joins the lines to a packet, <code>null</code> lines are left out.
+	 */
+	private static byte[] encode(String... lines) {
+		StringBuilder sb = new StringBuilder();
+		for (String line : lines) {
+			if (line != null)
+				sb.append(line).append(SSDPStatic.NEWLINE);
+		}
+		sb.append(SSDPStatic.NEWLINE);
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,107 @@
+package io.github.vveird.ssdp.server;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allow and deny lists of source subnets in CIDR notation. A denied subnet
+ * wins over an allowed one, with an empty allow list every source not denied
+ * is allowed.
+ */
+class SubnetFilter {
+
+	private final List<Subnet> allowed = new ArrayList<>();
+
+	private final List<Subnet> denied = new ArrayList<>();
+
+	public SubnetFilter(List<String> allowed, List<String> denied) {
+		for (String cidr : allowed) {
+			this.allowed.add(parse(cidr));
+		}
+		for (String cidr : denied) {
+			this.denied.add(parse(cidr));
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if neither list is set
+	 */
+	public boolean isEmpty() {
+		return allowed.isEmpty() && denied.isEmpty();
+	}
+
+	public boolean isAllowed(InetAddress address) {
+		byte[] a = address.getAddress();
+		for (Subnet s : denied) {
+			if (s.contains(a))
+				return false;
+		}
+		if (allowed.isEmpty())
+			return true;
+		for (Subnet s : allowed) {
+			if (s.contains(a))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Parses a subnet like <code>192.168.0.0/16</code>, a plain address is a
+	 * subnet of one host. IPv4 addresses need all four octets.
+	 * @throws IllegalArgumentException if the subnet is invalid
+	 */
+	static Subnet parse(String cidr) {
+		int slash = cidr.indexOf('/');
+		String host = slash < 0 ? cidr.trim() : cidr.substring(0, slash).trim();
+		byte[] address = null;
+		try {
+			// Only literal addresses are accepted, no name lookup takes place.
+			// IPv4 needs all four octets, getByName reads 192.168 as 192.0.0.168
+			if (!host.matches("[0-9]{1,3}(\\.[0-9]{1,3}){3}|[0-9a-fA-F:.]*:[0-9a-fA-F:.]*"))
+				throw new IllegalArgumentException("Invalid subnet: " + cidr);
+			address = InetAddress.getByName(host).getAddress();
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException("Invalid subnet: " + cidr, e);
+		}
+		int prefix = address.length * 8;
+		if (slash >= 0) {
+			try {
+				prefix = Integer.parseInt(cidr.substring(slash + 1).trim());
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid subnet: " + cidr, e);
+			}
+			if (prefix < 0 || prefix > address.length * 8)
+				throw new IllegalArgumentException("Invalid prefix length: " + cidr);
+		}
+		return new Subnet(address, prefix);
+	}
+
+	static class Subnet {
+
+		final byte[] address;
+
+		final int prefix;
+
+		Subnet(byte[] address, int prefix) {
+			this.address = address;
+			this.prefix = prefix;
+		}
+
+		boolean contains(byte[] a) {
+			if (a.length != address.length)
+				return false;
+			int bytes = prefix / 8;
+			for (int i = 0; i < bytes; i++) {
+				if (a[i] != address[i])
+					return false;
+			}
+			int bits = prefix % 8;
+			if (bits == 0)
+				return true;
+			int m = 0xFF00 >> bits;
+			return (a[bytes] & m) == (address[bytes] & m);
+		}
+	}
+}
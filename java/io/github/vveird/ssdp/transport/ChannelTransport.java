@@ -0,0 +1,137 @@
+package io.github.vveird.ssdp.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.github.vveird.ssdp.SSDPStatic;
+
+/**
+ * Transport on non-blocking channels, read by a {@link SelectorEventLoop}
+ * shared with other transports. Transports opened by a
+ * {@link ChannelTransportFactory} can be started.
+ */
+public class ChannelTransport implements Transport {
+
+	private Logger logger = LogManager.getLogger(ChannelTransport.class);
+
+	private final InetAddress localAddress;
+
+	private final DatagramChannel multicastChannel;
+
+	private final DatagramChannel unicastChannel;
+
+	private final SocketAddress multicastGroup;
+
+	/**
+	 * Loop reading the channels, <code>null</code> if the channels are read
+	 * by the owner
+	 */
+	private SelectorEventLoop eventLoop = null;
+
+	public ChannelTransport(InetAddress localAddress, DatagramChannel mcChannel, DatagramChannel ucChannel)
+			throws IOException {
+		this.localAddress = localAddress;
+		this.multicastChannel = mcChannel;
+		this.unicastChannel = ucChannel;
+
+		this.multicastGroup = new InetSocketAddress(SSDPStatic.MULTICAST_ADDRESS, SSDPStatic.MULTICAST_PORT);
+		try {
+			NetworkInterface networkInterface = NetworkInterface.getByInetAddress(localAddress);
+
+			multicastChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			multicastChannel.bind(new InetSocketAddress(SSDPStatic.MULTICAST_PORT));
+			multicastChannel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+			multicastChannel.join(InetAddress.getByName(SSDPStatic.MULTICAST_ADDRESS), networkInterface);
+			multicastChannel.configureBlocking(false);
+
+			unicastChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			unicastChannel.bind(new InetSocketAddress(localAddress, 0));
+			unicastChannel.configureBlocking(false);
+		} catch (IOException | RuntimeException e) {
+			// Nobody else holds the channels, e.g. port 1900 in use or no multicast
+			close();
+			throw e;
+		}
+	}
+
+	/** Opens a transport on IPv4 channels */
+	public static ChannelTransport open(InetAddress localAddress) throws IOException {
+		return open(localAddress, null);
+	}
+
+	/** Opens a transport on IPv4 channels read by the event loop */
+	static ChannelTransport open(InetAddress localAddress, SelectorEventLoop eventLoop) throws IOException {
+		DatagramChannel mcChannel = DatagramChannel.open(StandardProtocolFamily.INET);
+		DatagramChannel ucChannel;
+		try {
+			ucChannel = DatagramChannel.open(StandardProtocolFamily.INET);
+		} catch (IOException e) {
+			mcChannel.close();
+			throw e;
+		}
+		ChannelTransport transport = new ChannelTransport(localAddress, mcChannel, ucChannel);
+		transport.eventLoop = eventLoop;
+		return transport;
+	}
+
+	@Override
+	public InetAddress getLocalAddress() {
+		return localAddress;
+	}
+
+	public DatagramChannel getMulticastChannel() {
+		return multicastChannel;
+	}
+
+	public DatagramChannel getUnicastChannel() {
+		return unicastChannel;
+	}
+
+	@Override
+	public void sendMulticast(byte[] data) throws IOException {
+		send(data, multicastGroup);
+	}
+
+	@Override
+	public void send(byte[] data, SocketAddress destination) throws IOException {
+		// A full send buffer drops the datagram, as the network would
+		unicastChannel.send(ByteBuffer.wrap(data), destination);
+	}
+
+	/**
+	 * @throws IllegalStateException if the transport was not opened by a
+	 *             {@link ChannelTransportFactory}
+	 */
+	@Override
+	public void start(Receiver receiver) {
+		if (eventLoop == null)
+			throw new IllegalStateException("Channels of " + localAddress + " are not served by an event loop");
+		eventLoop.register(this, receiver);
+	}
+
+	@Override
+	public void close() {
+		for (DatagramChannel channel : new DatagramChannel[] { multicastChannel, unicastChannel }) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.warn("Error closing SSDP channel on " + localAddress, e);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ChannelTransport[" + localAddress.getHostAddress() + "]";
+	}
+}
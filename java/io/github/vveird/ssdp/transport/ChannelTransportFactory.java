@@ -0,0 +1,49 @@
+package io.github.vveird.ssdp.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.vveird.ssdp.BufferPool;
+
+/**
+ * Opens {@link ChannelTransport}s spread over a fixed number of selector
+ * event loops. Closing the factory stops the loops.
+ */
+public class ChannelTransportFactory implements TransportFactory {
+
+	private final List<SelectorEventLoop> eventLoops = new ArrayList<>();
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * @param threads Number of event loop threads
+	 * @param bufferPool Receive buffers of the loops
+	 */
+	public ChannelTransportFactory(int threads, BufferPool bufferPool) throws IOException {
+		if (threads < 1)
+			throw new IllegalArgumentException("At least one event loop thread is required");
+		try {
+			for (int i = 0; i < threads; i++) {
+				eventLoops.add(new SelectorEventLoop("SSDP Event Loop " + i + " " + UUID.randomUUID().toString(), bufferPool));
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	public Transport open(InetAddress localAddress) throws IOException {
+		return ChannelTransport.open(localAddress, eventLoops.get(Math.floorMod(next.getAndIncrement(), eventLoops.size())));
+	}
+
+	public void close() {
+		for (SelectorEventLoop eventLoop : eventLoops) {
+			eventLoop.close();
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package io.github.vveird.ssdp.transport;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.github.vveird.ssdp.BufferPool;
+import io.github.vveird.ssdp.transport.Transport.Receiver;
+
+/**
+ * Event loop serving the multicast and unicast channels of any number of
+ * {@link ChannelTransport}s from a single thread.
+ */
+class SelectorEventLoop implements Runnable {
+
+	/**
+	 * Datagrams read from one channel before the next ready channel is served
+	 */
+	private static final int READS_PER_WAKEUP = 64;
+
+	private static class Registration {
+		final ChannelTransport transport;
+		final Receiver receiver;
+		final boolean multicast;
+
+		Registration(ChannelTransport transport, Receiver receiver, boolean multicast) {
+			this.transport = transport;
+			this.receiver = receiver;
+			this.multicast = multicast;
+		}
+	}
+
+	private Logger logger = LogManager.getLogger(SelectorEventLoop.class);
+
+	private final Selector selector;
+
+	private final Thread thread;
+
+	private final Queue<Registration> pending = new ConcurrentLinkedQueue<>();
+
+	private final BufferPool bufferPool;
+
+	private volatile boolean looping = true;
+
+	public SelectorEventLoop(String name, BufferPool bufferPool) throws IOException {
+		this.bufferPool = bufferPool;
+		this.selector = Selector.open();
+		this.thread = new Thread(this);
+		this.thread.setDaemon(true);
+		this.thread.setName(name);
+		this.thread.start();
+	}
+
+	/**
+	 * Registers the multicast and unicast channel of the transport with this
+	 * loop. The data array passed to the receiver returns to the buffer pool
+	 * after the call.
+	 */
+	public void register(ChannelTransport transport, Receiver receiver) {
+		pending.add(new Registration(transport, receiver, true));
+		pending.add(new Registration(transport, receiver, false));
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		while (looping) {
+			try {
+				selector.select();
+				registerPending();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (key.isValid() && key.isReadable())
+						read(key);
+				}
+			} catch (IOException e) {
+				logger.error("Error in SSDP event loop", e);
+			}
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			logger.error("Error closing SSDP event loop selector", e);
+		}
+	}
+
+	private void registerPending() {
+		Registration r = null;
+		while ((r = pending.poll()) != null) {
+			DatagramChannel channel = r.multicast ? r.transport.getMulticastChannel() : r.transport.getUnicastChannel();
+			try {
+				channel.register(selector, SelectionKey.OP_READ, r);
+			} catch (ClosedChannelException e) {
+				logger.error("Channel of " + r.transport + " closed before registration", e);
+			}
+		}
+	}
+
+	private void read(SelectionKey key) {
+		Registration r = (Registration) key.attachment();
+		DatagramChannel channel = (DatagramChannel) key.channel();
+		ByteBuffer buffer = bufferPool.acquireDirect();
+		byte[] packet = bufferPool.acquireArray();
+		try {
+			for (int i = 0; i < READS_PER_WAKEUP; i++) {
+				SocketAddress from = null;
+				try {
+					buffer.clear();
+					from = channel.receive(buffer);
+				} catch (IOException e) {
+					logger.error("Error receiving SSDP datagram", e);
+					return;
+				}
+				if (from == null)
+					return;
+				buffer.flip();
+				int length = buffer.remaining();
+				buffer.get(packet, 0, length);
+				try {
+					r.receiver.received(r.multicast, packet, length, from);
+				} catch (RuntimeException e) {
+					logger.error("Error handling SSDP datagram from " + from, e);
+				}
+			}
+		} finally {
+			bufferPool.release(buffer);
+			bufferPool.release(packet);
+		}
+	}
+
+	public void close() {
+		looping = false;
+		selector.wakeup();
+	}
+}
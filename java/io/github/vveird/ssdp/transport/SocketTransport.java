@@ -0,0 +1,138 @@
+package io.github.vveird.ssdp.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.github.vveird.ssdp.SSDPStatic;
+
+/**
+ * Transport on a multicast socket joined to the SSDP group and a unicast
+ * socket on an ephemeral port. Each socket is read by its own daemon thread.
+ */
+public class SocketTransport implements Transport {
+
+	private Logger logger = LogManager.getLogger(SocketTransport.class);
+
+	private final InetAddress localAddress;
+
+	private final MulticastSocket multicastSocket;
+
+	private final DatagramSocket datagramSocket;
+
+	private final SocketAddress multicastGroup;
+
+	private final NetworkInterface networkInterface;
+
+	/**
+	 * Size of the receive buffer of each thread
+	 */
+	private final int bufferSize;
+
+	private volatile boolean open = true;
+
+	public SocketTransport(InetAddress localAddress, int bufferSize) throws IOException {
+		this(localAddress, new MulticastSocket(SSDPStatic.MULTICAST_PORT), new DatagramSocket(null), bufferSize);
+	}
+
+	public SocketTransport(InetAddress localAddress, MulticastSocket mcSocket, DatagramSocket dgSocket, int bufferSize)
+			throws IOException {
+		this.localAddress = localAddress;
+		this.multicastSocket = mcSocket;
+		this.datagramSocket = dgSocket;
+		this.bufferSize = bufferSize;
+
+		this.multicastGroup = new InetSocketAddress(SSDPStatic.MULTICAST_ADDRESS, SSDPStatic.MULTICAST_PORT);
+		this.networkInterface = NetworkInterface.getByInetAddress(localAddress);
+		multicastSocket.joinGroup(multicastGroup, networkInterface);
+
+		datagramSocket.setReuseAddress(true);
+		datagramSocket.bind(new InetSocketAddress(localAddress, 0));
+	}
+
+	/**
+	 * @param bufferSize Largest datagram received without being truncated
+	 */
+	public static TransportFactory factory(int bufferSize) {
+		return localAddress -> new SocketTransport(localAddress, bufferSize);
+	}
+
+	@Override
+	public InetAddress getLocalAddress() {
+		return localAddress;
+	}
+
+	public MulticastSocket getMulticastSocket() {
+		return multicastSocket;
+	}
+
+	public DatagramSocket getDatagramSocket() {
+		return datagramSocket;
+	}
+
+	@Override
+	public void sendMulticast(byte[] data) throws IOException {
+		send(data, multicastGroup);
+	}
+
+	@Override
+	public void send(byte[] data, SocketAddress destination) throws IOException {
+		datagramSocket.send(new DatagramPacket(data, data.length, destination));
+	}
+
+	@Override
+	public void start(Receiver receiver) {
+		startReader(multicastSocket, true, receiver, "SSDP Multicast Receiver " + localAddress.getHostAddress());
+		startReader(datagramSocket, false, receiver, "SSDP Unicast Receiver " + localAddress.getHostAddress());
+	}
+
+	private void startReader(DatagramSocket socket, boolean multicast, Receiver receiver, String name) {
+		Thread t = new Thread(() -> {
+			DatagramPacket dp = new DatagramPacket(new byte[bufferSize], bufferSize);
+			while (open && !socket.isClosed()) {
+				try {
+					dp.setLength(bufferSize);
+					socket.receive(dp);
+					receiver.received(multicast, dp.getData(), dp.getLength(), dp.getSocketAddress());
+				} catch (SocketTimeoutException e) {
+					// Only set for the blocking receive methods of SSDPClient
+				} catch (IOException e) {
+					if (open)
+						logger.error("Error receiving SSDP datagram on " + localAddress, e);
+				} catch (RuntimeException e) {
+					logger.error("Error handling SSDP datagram from " + dp.getSocketAddress(), e);
+				}
+			}
+		});
+		t.setDaemon(true);
+		t.setName(name);
+		t.start();
+	}
+
+	@Override
+	public void close() {
+		open = false;
+		try {
+			multicastSocket.leaveGroup(multicastGroup, networkInterface);
+		} catch (IOException e) {
+			logger.warn("Error leaving the SSDP multicast group on " + localAddress, e);
+		}
+		multicastSocket.close();
+		// Not disconnected first, that waits for a blocked receive to return
+		datagramSocket.close();
+	}
+
+	@Override
+	public String toString() {
+		return "SocketTransport[" + localAddress.getHostAddress() + "]";
+	}
+}
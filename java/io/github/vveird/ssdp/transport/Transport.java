@@ -0,0 +1,38 @@
+package io.github.vveird.ssdp.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketAddress;
+
+/**
+ * Moves the SSDP datagrams of one local interface. Once started, received
+ * datagrams are pushed to a {@link Receiver}.
+ */
+public interface Transport {
+
+	interface Receiver {
+		/**
+		 * Called for every received datagram, possibly from several threads at
+		 * once. The data is only valid during the call and must not be modified.
+		 * @param multicast <code>true</code> if the datagram arrived on the SSDP
+		 *            port, <code>false</code> for unicast answers
+		 */
+		public void received(boolean multicast, byte[] data, int length, SocketAddress from);
+	}
+
+	public InetAddress getLocalAddress();
+
+	/**
+	 * Sends the datagram to the SSDP multicast group
+	 */
+	public void sendMulticast(byte[] data) throws IOException;
+
+	public void send(byte[] data, SocketAddress destination) throws IOException;
+
+	/**
+	 * Starts delivering received datagrams to the receiver
+	 */
+	public void start(Receiver receiver) throws IOException;
+
+	public void close();
+}
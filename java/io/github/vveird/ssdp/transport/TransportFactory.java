@@ -0,0 +1,12 @@
+package io.github.vveird.ssdp.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * Opens the {@link Transport} of a local interface.
+ */
+public interface TransportFactory {
+
+	public Transport open(InetAddress localAddress) throws IOException;
+}
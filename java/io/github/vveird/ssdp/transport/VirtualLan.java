@@ -0,0 +1,199 @@
+package io.github.vveird.ssdp.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import io.github.vveird.ssdp.SSDPStatic;
+
+/**
+ * In-memory network connecting any number of transports in one JVM, to test
+ * and measure the protocol logic without sockets. Multicast datagrams reach
+ * every started transport on the LAN, the sender included, as with multicast
+ * loopback. Unicast datagrams reach the transport bound to the destination,
+ * those sent to port 1900 arrive as multicast on every transport with the
+ * destination address.
+ * <p>
+ * Datagrams are delivered on the sending thread without locking or copying,
+ * receivers get the array of the sender. Datagrams to an address nobody
+ * listens on are dropped.
+ */
+public class VirtualLan implements TransportFactory {
+
+	/**
+	 * First port handed out to the unicast side of the transports
+	 */
+	private static final int FIRST_PORT = 49152;
+
+	private static final VirtualTransport[] EMPTY = new VirtualTransport[0];
+
+	private Logger logger = LogManager.getLogger(VirtualLan.class);
+
+	/**
+	 * Copy-on-write array of all open transports, read without locking
+	 */
+	private final AtomicReference<VirtualTransport[]> members = new AtomicReference<>(EMPTY);
+
+	private final ConcurrentHashMap<SocketAddress, VirtualTransport> unicast = new ConcurrentHashMap<>();
+
+	private final AtomicInteger nextPort = new AtomicInteger(FIRST_PORT);
+
+	private final LongAdder delivered = new LongAdder();
+
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * Opens a transport on the address, its unicast side gets the next free
+	 * port. Any number of transports may share an address.
+	 */
+	@Override
+	public Transport open(InetAddress localAddress) {
+		VirtualTransport t = new VirtualTransport(new InetSocketAddress(localAddress, nextPort.getAndIncrement()));
+		unicast.put(t.address, t);
+		VirtualTransport[] current;
+		VirtualTransport[] next;
+		do {
+			current = members.get();
+			next = Arrays.copyOf(current, current.length + 1);
+			next[current.length] = t;
+		} while (!members.compareAndSet(current, next));
+		return t;
+	}
+
+	private void leave(VirtualTransport t) {
+		unicast.remove(t.address, t);
+		VirtualTransport[] current;
+		VirtualTransport[] next;
+		do {
+			current = members.get();
+			int i = Arrays.asList(current).indexOf(t);
+			if (i < 0)
+				return;
+			next = new VirtualTransport[current.length - 1];
+			System.arraycopy(current, 0, next, 0, i);
+			System.arraycopy(current, i + 1, next, i, next.length - i);
+		} while (!members.compareAndSet(current, next));
+	}
+
+	private void multicast(VirtualTransport from, byte[] data) {
+		for (VirtualTransport t : members.get()) {
+			t.deliver(true, data, from.address);
+		}
+	}
+
+	private void unicast(VirtualTransport from, byte[] data, SocketAddress destination) {
+		if (destination instanceof InetSocketAddress && ((InetSocketAddress) destination).getPort() == SSDPStatic.MULTICAST_PORT) {
+			InetAddress address = ((InetSocketAddress) destination).getAddress();
+			boolean found = false;
+			for (VirtualTransport t : members.get()) {
+				if (t.address.getAddress().equals(address))
+					found |= t.deliver(true, data, from.address);
+			}
+			if (!found)
+				dropped.increment();
+			return;
+		}
+		VirtualTransport t = unicast.get(destination);
+		if (t == null || !t.deliver(false, data, from.address))
+			dropped.increment();
+	}
+
+	/**
+	 * @return Number of open transports
+	 */
+	public int size() {
+		return members.get().length;
+	}
+
+	/**
+	 * @return Number of datagrams handed to a receiver, a multicast counts
+	 *         once per receiver
+	 */
+	public long getDelivered() {
+		return delivered.sum();
+	}
+
+	/**
+	 * @return Number of unicast datagrams sent to an address nobody listens on
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	private class VirtualTransport implements Transport {
+
+		final InetSocketAddress address;
+
+		volatile Receiver receiver = null;
+
+		volatile boolean open = true;
+
+		VirtualTransport(InetSocketAddress address) {
+			this.address = address;
+		}
+
+		/**
+		 * @return <code>false</code> if the transport was not started yet
+		 */
+		boolean deliver(boolean multicast, byte[] data, SocketAddress from) {
+			Receiver r = receiver;
+			if (r == null)
+				return false;
+			try {
+				r.received(multicast, data, data.length, from);
+			} catch (RuntimeException e) {
+				logger.error("Error handling SSDP datagram from " + from, e);
+			}
+			delivered.increment();
+			return true;
+		}
+
+		@Override
+		public InetAddress getLocalAddress() {
+			return address.getAddress();
+		}
+
+		@Override
+		public void sendMulticast(byte[] data) throws IOException {
+			checkOpen();
+			multicast(this, data);
+		}
+
+		@Override
+		public void send(byte[] data, SocketAddress destination) throws IOException {
+			checkOpen();
+			unicast(this, data, destination);
+		}
+
+		private void checkOpen() throws IOException {
+			if (!open)
+				throw new IOException("Transport " + address + " is closed");
+		}
+
+		@Override
+		public void start(Receiver receiver) {
+			this.receiver = receiver;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+			receiver = null;
+			leave(this);
+		}
+
+		@Override
+		public String toString() {
+			return "VirtualTransport[" + address + "]";
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package io.github.vveird.ssdp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs the {@link DescriptionFetcher} against an embedded HTTP server.
+ */
+public class DescriptionFetcherTest {
+
+	private static final byte[] DESCRIPTION = "<root><device/></root>".getBytes(StandardCharsets.UTF_8);
+
+	private HttpServer server;
+
+	private ExecutorService serverThreads;
+
+	private DescriptionFetcher fetcher;
+
+	private final AtomicInteger requests = new AtomicInteger();
+
+	private final AtomicInteger active = new AtomicInteger();
+
+	private final AtomicInteger maxActive = new AtomicInteger();
+
+	private final AtomicInteger conditional = new AtomicInteger();
+
+	private volatile long delayMillis = 0;
+
+	@Before
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		serverThreads = Executors.newCachedThreadPool();
+		server.setExecutor(serverThreads);
+		server.createContext("/desc", this::description);
+		server.createContext("/large", e -> respond(e, new byte[4096], true));
+		server.createContext("/chunked", e -> respond(e, new byte[4096], false));
+		server.start();
+	}
+
+	@After
+	public void stop() {
+		if (fetcher != null)
+			fetcher.close();
+		server.stop(0);
+		serverThreads.shutdownNow();
+	}
+
+	private String url(String path) {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+	}
+
+	private void description(HttpExchange e) throws IOException {
+		requests.incrementAndGet();
+		int now = active.incrementAndGet();
+		maxActive.accumulateAndGet(now, Math::max);
+		try {
+			if (delayMillis > 0)
+				Thread.sleep(delayMillis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			active.decrementAndGet();
+		}
+		if ("\"v1\"".equals(e.getRequestHeaders().getFirst("If-None-Match"))) {
+			conditional.incrementAndGet();
+			e.sendResponseHeaders(304, -1);
+			e.close();
+			return;
+		}
+		e.getResponseHeaders().set("ETag", "\"v1\"");
+		e.getResponseHeaders().set("Content-Type", "text/xml");
+		respond(e, DESCRIPTION, true);
+	}
+
+	private static void respond(HttpExchange e, byte[] body, boolean contentLength) throws IOException {
+		e.sendResponseHeaders(200, contentLength ? body.length : 0);
+		try (OutputStream out = e.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	@Test
+	public void coalescesConcurrentFetchesOfOneUrl() throws Exception {
+		delayMillis = 200;
+		fetcher = DescriptionFetcher.builder().maxConnectionsPerHost(5).build();
+		long expiry = System.currentTimeMillis() + 60_000;
+		List<CompletableFuture<DeviceDescription>> results = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			results.add(fetcher.fetch(url("/desc/" + (i % 5)), expiry));
+		}
+		for (CompletableFuture<DeviceDescription> r : results) {
+			assertArrayEquals(DESCRIPTION, r.get(5, TimeUnit.SECONDS).getContent());
+		}
+		assertEquals(5, requests.get());
+		assertEquals(50, fetcher.getRequests());
+		assertEquals(45, fetcher.getHits());
+		// Cached until the expiry
+		fetcher.fetch(url("/desc/0"), expiry).get(5, TimeUnit.SECONDS);
+		assertEquals(5, requests.get());
+	}
+
+	@Test
+	public void limitsConcurrentRequestsPerHost() throws Exception {
+		delayMillis = 100;
+		fetcher = DescriptionFetcher.builder().maxConnectionsPerHost(2).threads(8).build();
+		long expiry = System.currentTimeMillis() + 60_000;
+		List<CompletableFuture<DeviceDescription>> results = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			results.add(fetcher.fetch(url("/desc/" + i), expiry));
+		}
+		for (CompletableFuture<DeviceDescription> r : results) {
+			r.get(10, TimeUnit.SECONDS);
+		}
+		assertEquals(10, requests.get());
+		assertEquals(2, maxActive.get());
+	}
+
+	@Test
+	public void revalidatesExpiredDescriptionWithConditionalGet() throws Exception {
+		fetcher = DescriptionFetcher.builder().build();
+		DeviceDescription first = fetcher.fetch(url("/desc"), 0).get(5, TimeUnit.SECONDS);
+		assertFalse(first.isRevalidated());
+		assertEquals("\"v1\"", first.getETag());
+		DeviceDescription second = fetcher.fetch(url("/desc"), System.currentTimeMillis() + 60_000).get(5,
+				TimeUnit.SECONDS);
+		assertTrue(second.isRevalidated());
+		assertArrayEquals(DESCRIPTION, second.getContent());
+		assertEquals(1, conditional.get());
+		assertEquals(1, fetcher.getNotModified());
+	}
+
+	@Test
+	public void rejectsDescriptionsOverTheSizeCap() throws Exception {
+		fetcher = DescriptionFetcher.builder().maxContentLength(1024).build();
+		long expiry = System.currentTimeMillis() + 60_000;
+		assertFailsWithIOException(fetcher.fetch(url("/large"), expiry));
+		// Without Content-Length the limit applies while reading
+		assertFailsWithIOException(fetcher.fetch(url("/chunked"), expiry));
+	}
+
+	@Test
+	public void rejectsInvalidUrls() {
+		fetcher = DescriptionFetcher.builder().build();
+		assertTrue(fetcher.fetch("ftp://127.0.0.1/desc", 0).isCompletedExceptionally());
+		assertTrue(fetcher.fetch(null, 0).isCompletedExceptionally());
+	}
+
+	private static void assertFailsWithIOException(CompletableFuture<DeviceDescription> result) throws Exception {
+		try {
+			result.get(5, TimeUnit.SECONDS);
+			fail("Description over the size cap was accepted");
+		} catch (ExecutionException e) {
+			assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IOException);
+		}
+	}
+}
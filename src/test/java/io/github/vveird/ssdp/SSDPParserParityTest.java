@@ -0,0 +1,167 @@
+package io.github.vveird.ssdp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import io.github.vveird.ssdp.SSDPStatic.SSDPType;
+
+/**
+ * Compares {@link SSDPParser} with the regex parser it replaced on the vendor
+ * packets of the benchmarks, as they are and behind a header that pushes all
+ * others past 32 KiB.
+ */
+@RunWith(Parameterized.class)
+public class SSDPParserParityTest {
+
+	private static final SocketAddress SENDER = new InetSocketAddress("192.168.1.20", 1900);
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> packets() {
+		return Arrays.asList(new Object[][] { { "msearch-short" }, { "notify-router" }, { "notify-sonos" },
+				{ "response-hue" }, { "response-roku" }, { "response-windows" } });
+	}
+
+	private final String name;
+
+	public SSDPParserParityTest(String name) {
+		this.name = name;
+	}
+
+	@Test
+	public void matchesLegacyParser() throws IOException {
+		assertParity(load(name));
+	}
+
+	@Test
+	public void matchesLegacyParserBeyond32KiB() throws IOException {
+		String packet = load(name);
+		int firstHeader = packet.indexOf("\r\n") + 2;
+		char[] padding = new char[40_000];
+		Arrays.fill(padding, 'p');
+		String large = packet.substring(0, firstHeader) + "X-PADDING: " + new String(padding) + "\r\n"
+				+ packet.substring(firstHeader);
+		assertTrue(large.length() < 65_507);
+		assertParity(large);
+	}
+
+	private static void assertParity(String packet) {
+		byte[] data = packet.getBytes(StandardCharsets.UTF_8);
+		Legacy expected = Legacy.parse(packet);
+		SSDPMessage msg = SSDPMessage.parse(data, 0, data.length, SENDER, null);
+		assertEquals(expected.type, msg.getSSDPType());
+		assertEquals(expected.responseCode, msg.getResponseCode());
+		assertEquals(expected.responseDescriptor, msg.getResponseDescriptor());
+		assertEquals(expected.location, msg.getLocation());
+		assertEquals(expected.server, msg.getServer());
+		assertEquals(expected.st, msg.getServiceType());
+		assertEquals(expected.usn, msg.getUSN());
+		assertEquals(expected.nts, msg.getNTS());
+		assertEquals(SENDER, msg.getIpAddress());
+		for (Map.Entry<String, String> header : expected.headers.entrySet()) {
+			assertTrue(header.getKey(), msg.getHeaders().contains(header.getKey()));
+			assertEquals(header.getKey(), header.getValue(), msg.getHeader(header.getKey()));
+		}
+		// The byte parser also keeps headers with empty values like EXT:
+		for (String header : msg.getHeaders()) {
+			if (!expected.headers.containsKey(header))
+				assertEquals(header, "", msg.getHeader(header));
+		}
+	}
+
+	private static String load(String name) throws IOException {
+		try (InputStream in = SSDPParserParityTest.class.getResourceAsStream("/packets/" + name + ".txt")) {
+			assertNotNull(name, in);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[1024];
+			int read = 0;
+			while ((read = in.read(buf)) > 0) {
+				out.write(buf, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8).replace("\r\n", "\n").replace("\n", "\r\n");
+		}
+	}
+
+	/**
+	 * The regex based parsing of <code>SSDPMessage.parse</code> before the byte
+	 * parser
+	 */
+	private static class Legacy {
+
+		private static final Pattern HEADER = Pattern.compile("(.*): (.*)");
+
+		private static final Pattern HTTP_RESPONSE = Pattern.compile(
+				"^(HTTP|http)/(?<httpversion>(1|2)\\.\\d) (?<httpresponsecode>\\d{3}) (?<httpresponsedescriptor>.*)");
+
+		private static final Pattern SSDP_REQUEST = Pattern.compile("(?<ssdptype>.*) \\* HTTP/(?<httpversion>.*)");
+
+		SSDPType type;
+
+		int responseCode = 999;
+
+		String responseDescriptor;
+
+		String location;
+
+		String server;
+
+		String st;
+
+		String usn;
+
+		String nts;
+
+		Map<String, String> headers = new HashMap<>();
+
+		static Legacy parse(String packet) {
+			Legacy l = new Legacy();
+			for (String line : packet.replace("\r", "").split("\n")) {
+				Matcher request = SSDP_REQUEST.matcher(line);
+				Matcher response = HTTP_RESPONSE.matcher(line);
+				if (request.matches()) {
+					l.type = SSDPType.getEnum(request.group("ssdptype"));
+				}
+				else if (response.matches()) {
+					l.type = SSDPType.SSDP_RESPONSE;
+					l.headers.put(SSDPParser.HTTP_RESPONSE_STATUS_CODE, response.group("httpresponsecode"));
+					l.headers.put(SSDPParser.HTTP_RESPONSE_STATUS_DESC, response.group("httpresponsedescriptor"));
+				}
+				Matcher header = HEADER.matcher(line);
+				if (header.matches())
+					l.headers.put(header.group(1).toUpperCase(), header.group(2));
+			}
+			String location = l.headers.remove("LOCATION");
+			l.location = location != null ? location : "";
+			l.server = l.headers.remove("SERVER");
+			String st = l.headers.remove("ST");
+			String nt = l.headers.remove("NT");
+			l.st = st != null ? st : nt;
+			l.usn = l.headers.remove("USN");
+			l.nts = l.headers.remove("NTS");
+			String code = l.headers.get(SSDPParser.HTTP_RESPONSE_STATUS_CODE);
+			if (code != null)
+				l.responseCode = Integer.parseInt(code);
+			String descriptor = l.headers.get(SSDPParser.HTTP_RESPONSE_STATUS_DESC);
+			l.responseDescriptor = descriptor != null ? descriptor : "";
+			return l;
+		}
+	}
+}
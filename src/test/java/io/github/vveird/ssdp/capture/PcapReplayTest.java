@@ -0,0 +1,97 @@
+package io.github.vveird.ssdp.capture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import io.github.vveird.ssdp.SSDPStatic;
+import io.github.vveird.ssdp.transport.Transport;
+
+/**
+ * Writes captured datagrams of two interfaces to a pcap file, reads them back
+ * and replays them.
+ */
+public class PcapReplayTest {
+
+	private static final byte[] NOTIFY = ("NOTIFY * HTTP/1.1\r\nHOST: 239.255.255.250:1900\r\n"
+			+ "NT: upnp:rootdevice\r\nNTS: ssdp:alive\r\nUSN: uuid:a::upnp:rootdevice\r\n\r\n")
+			.getBytes(StandardCharsets.UTF_8);
+
+	private static final byte[] RESPONSE = ("HTTP/1.1 200 OK\r\nST: upnp:rootdevice\r\n"
+			+ "USN: uuid:b::upnp:rootdevice\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+
+	private static InetSocketAddress address(String host, int port) throws Exception {
+		return new InetSocketAddress(InetAddress.getByName(host), port);
+	}
+
+	private static List<CapturedPacket> capture() throws Exception {
+		return Arrays.asList(
+				new CapturedPacket(1_000_000, false, true, address("192.168.1.2", SSDPStatic.MULTICAST_PORT),
+						address("192.168.1.10", 1900), NOTIFY),
+				new CapturedPacket(1_000_100, false, true, address("10.0.0.2", SSDPStatic.MULTICAST_PORT),
+						address("10.0.0.10", 1900), NOTIFY),
+				new CapturedPacket(1_000_200, false, false, address("10.0.0.2", 0), address("10.0.0.20", 1900),
+						RESPONSE),
+				new CapturedPacket(1_000_300, true, true, address("192.168.1.2", 0),
+						new InetSocketAddress(SSDPStatic.MULTICAST_ADDRESS, SSDPStatic.MULTICAST_PORT), NOTIFY));
+	}
+
+	private static List<CapturedPacket> roundTrip(List<CapturedPacket> packets) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Pcap.write(packets, out);
+		return Pcap.read(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	@Test
+	public void keepsTheInterfaceOfReceivedDatagrams() throws Exception {
+		List<CapturedPacket> read = roundTrip(capture());
+		assertEquals(4, read.size());
+		CapturedPacket first = read.get(0);
+		assertEquals(1_000_000, first.getTimestampMicros());
+		assertTrue(first.isMulticast());
+		assertEquals(address("192.168.1.2", SSDPStatic.MULTICAST_PORT), first.getLocal());
+		assertEquals(address("192.168.1.10", 1900), first.getRemote());
+		assertArrayEquals(NOTIFY, first.getData());
+		assertEquals(address("10.0.0.2", SSDPStatic.MULTICAST_PORT), read.get(1).getLocal());
+		assertFalse(read.get(2).isMulticast());
+		assertEquals(InetAddress.getByName("10.0.0.2"), read.get(2).getLocal().getAddress());
+		assertArrayEquals(RESPONSE, read.get(2).getData());
+		// The file does not tell which datagrams the host sent
+		assertFalse(read.get(3).isOutbound());
+		assertEquals(InetAddress.getByName("192.168.1.2"), read.get(3).getRemote().getAddress());
+	}
+
+	@Test
+	public void replaysToTheInterfaceTheDatagramArrivedOn() throws Exception {
+		Replayer replayer = Replayer.builder(roundTrip(capture())).speed(Replayer.AS_FAST_AS_POSSIBLE)
+				.excludeSource(InetAddress.getByName("192.168.1.2")).build();
+		assertEquals(3, replayer.size());
+		List<String> lan = received(replayer.open(InetAddress.getByName("192.168.1.2")));
+		List<String> wlan = received(replayer.open(InetAddress.getByName("10.0.0.2")));
+		assertEquals(3, (long) replayer.start().get(5, TimeUnit.SECONDS));
+		assertEquals(Collections.singletonList("multicast from /192.168.1.10:1900"), lan);
+		assertEquals(Arrays.asList("multicast from /10.0.0.10:1900", "unicast from /10.0.0.20:1900"), wlan);
+	}
+
+	private static List<String> received(Transport transport) throws Exception {
+		List<String> received = Collections.synchronizedList(new ArrayList<>());
+		transport.start((boolean multicast, byte[] data, int length, SocketAddress from) -> received
+				.add((multicast ? "multicast" : "unicast") + " from " + from));
+		return received;
+	}
+}
@@ -0,0 +1,131 @@
+package io.github.vveird.ssdp.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the M-SEARCH matching of the {@link ServiceIndex} against the UPnP
+ * device architecture.
+ */
+public class ServiceIndexTest {
+
+	private static final String UUID = "uuid:2fac1234-31f8-11b4-a222-08002b34c003";
+
+	private static final String ROOT = "upnp:rootdevice";
+
+	private static final String LIGHT_1 = "urn:schemas-upnp-org:device:DimmableLight:1";
+
+	private static final String SWITCH_2 = "urn:schemas-upnp-org:service:SwitchPower:2";
+
+	private ServiceIndex index;
+
+	@Before
+	public void register() {
+		index = new ServiceIndex();
+		index.add(service(ROOT, UUID + "::" + ROOT));
+		index.add(service(UUID, UUID));
+		index.add(service(LIGHT_1, UUID + "::" + LIGHT_1));
+		index.add(service(SWITCH_2, UUID + "::" + SWITCH_2));
+	}
+
+	private static SSDPService service(String st, String usn) {
+		return SSDPService.builder().st(st).usn(usn).location("http://192.168.1.2:80/desc.xml").build();
+	}
+
+	private List<String> match(String st) {
+		List<String> responses = new ArrayList<>();
+		index.match(st, r -> responses.add(new String(r, StandardCharsets.UTF_8)));
+		return responses;
+	}
+
+	private static void assertAnswer(String response, String st, String usn) {
+		assertTrue(response, response.contains("\r\nST: " + st + "\r\n"));
+		assertTrue(response, response.contains("\r\nUSN: " + usn + "\r\n"));
+	}
+
+	@Test
+	public void allMatchesEveryService() {
+		assertEquals(4, match(ServiceIndex.ST_ALL).size());
+	}
+
+	@Test
+	public void rootDeviceMatchesExactly() {
+		List<String> responses = match(ROOT);
+		assertEquals(1, responses.size());
+		assertAnswer(responses.get(0), ROOT, UUID + "::" + ROOT);
+	}
+
+	@Test
+	public void uuidMatchesTheDevice() {
+		List<String> responses = match(UUID);
+		assertEquals(1, responses.size());
+		assertAnswer(responses.get(0), UUID, UUID);
+	}
+
+	@Test
+	public void uuidOfAServiceUsnMatchesOnce() {
+		ServiceIndex services = new ServiceIndex();
+		services.add(service(LIGHT_1, UUID + "::" + LIGHT_1));
+		services.add(service(SWITCH_2, UUID + "::" + SWITCH_2));
+		List<String> responses = new ArrayList<>();
+		services.match(UUID, r -> responses.add(new String(r, StandardCharsets.UTF_8)));
+		assertEquals(1, responses.size());
+		assertAnswer(responses.get(0), UUID, UUID);
+	}
+
+	@Test
+	public void exactVersionMatches() {
+		List<String> responses = match(LIGHT_1);
+		assertEquals(1, responses.size());
+		assertAnswer(responses.get(0), LIGHT_1, UUID + "::" + LIGHT_1);
+	}
+
+	@Test
+	public void higherVersionAnswersWithTheSearchedVersion() {
+		String switch1 = "urn:schemas-upnp-org:service:SwitchPower:1";
+		List<String> responses = match(switch1);
+		assertEquals(1, responses.size());
+		assertAnswer(responses.get(0), switch1, UUID + "::" + SWITCH_2);
+	}
+
+	@Test
+	public void exactHitDoesNotHideHigherVersions() {
+		String switch1 = "urn:schemas-upnp-org:service:SwitchPower:1";
+		index.add(service(switch1, UUID + "::" + switch1));
+		List<String> responses = match(switch1);
+		assertEquals(2, responses.size());
+		assertAnswer(responses.get(0), switch1, UUID + "::" + SWITCH_2);
+		assertAnswer(responses.get(1), switch1, UUID + "::" + switch1);
+	}
+
+	@Test
+	public void lowerVersionDoesNotMatch() {
+		assertEquals(0, match("urn:schemas-upnp-org:device:DimmableLight:2").size());
+		assertEquals(0, match("urn:schemas-upnp-org:service:SwitchPower:3").size());
+	}
+
+	@Test
+	public void unknownTargetsMatchNothing() {
+		assertEquals(0, match("urn:schemas-upnp-org:device:Unknown:1").size());
+		assertEquals(0, match("uuid:00000000-0000-0000-0000-000000000000").size());
+		assertEquals(0, match("").size());
+		assertEquals(0, match(null).size());
+	}
+
+	@Test
+	public void removedServicesDoNotMatch() {
+		index = new ServiceIndex();
+		SSDPService light = service(LIGHT_1, UUID + "::" + LIGHT_1);
+		index.add(light);
+		index.remove(light);
+		assertEquals(0, match(LIGHT_1).size());
+		assertEquals(0, match(ServiceIndex.ST_ALL).size());
+	}
+}
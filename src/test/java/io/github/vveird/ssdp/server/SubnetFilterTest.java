@@ -0,0 +1,43 @@
+package io.github.vveird.ssdp.server;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class SubnetFilterTest {
+
+	private static boolean allowed(SubnetFilter filter, String address) throws Exception {
+		return filter.isAllowed(InetAddress.getByName(address));
+	}
+
+	@Test
+	public void matchesSubnetsAndHosts() throws Exception {
+		SubnetFilter filter = new SubnetFilter(Arrays.asList("192.168.0.0/16", "10.1.2.3", "fd00::/8"),
+				Collections.singletonList("192.168.66.0/23"));
+		assertTrue(allowed(filter, "192.168.1.20"));
+		assertTrue(allowed(filter, "10.1.2.3"));
+		assertTrue(allowed(filter, "fd12::1"));
+		assertFalse(allowed(filter, "192.168.67.1"));
+		assertFalse(allowed(filter, "10.1.2.4"));
+		assertFalse(allowed(filter, "192.169.0.1"));
+	}
+
+	@Test
+	public void rejectsShorthandIpv4() {
+		for (String cidr : new String[] { "192.168/16", "1.2.3", "10/8", "3232235777", "192.168.1.256",
+				"192.168.1.1.1/32", "localhost", "192.168.1.0/33" }) {
+			try {
+				SubnetFilter.parse(cidr);
+				fail("Accepted " + cidr);
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+}